@@ -3,9 +3,11 @@ package ch.sbb.iam;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
 @EnableCaching
+@ImportRuntimeHints(MAAusweisRuntimeHints.class)
 public class MAAusweisDemoApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,52 @@
+package ch.sbb.iam;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+/**
+ * Reflection and resource hints needed when the application is AOT processed / built as native image (mvn -Pnative native:compile).
+ * msal4j deserializes its discovery responses and token cache entities with Jackson, which is not visible to the AOT engine.
+ * The BouncyCastle provider instantiates its algorithm classes by name.
+ */
+public class MAAusweisRuntimeHints implements RuntimeHintsRegistrar {
+
+    private static final String[] msal4jJacksonTypes = {
+        "com.microsoft.aad.msal4j.AadInstanceDiscoveryResponse",
+        "com.microsoft.aad.msal4j.InstanceDiscoveryMetadataEntry",
+        "com.microsoft.aad.msal4j.ErrorResponse",
+        "com.microsoft.aad.msal4j.UserDiscoveryResponse",
+        "com.microsoft.aad.msal4j.ClientInfo",
+        "com.microsoft.aad.msal4j.IdToken",
+        "com.microsoft.aad.msal4j.TokenCache",
+        "com.microsoft.aad.msal4j.Credential",
+        "com.microsoft.aad.msal4j.AccessTokenCacheEntity",
+        "com.microsoft.aad.msal4j.RefreshTokenCacheEntity",
+        "com.microsoft.aad.msal4j.IdTokenCacheEntity",
+        "com.microsoft.aad.msal4j.AccountCacheEntity",
+        "com.microsoft.aad.msal4j.AppMetadataCacheEntity"
+    };
+
+    private static final String[] bouncyCastleTypes = {
+        "org.bouncycastle.jcajce.provider.asymmetric.EC$Mappings",
+        "org.bouncycastle.jcajce.provider.asymmetric.ec.KeyFactorySpi$EC",
+        "org.bouncycastle.jcajce.provider.asymmetric.ec.SignatureSpi$ecDSA256"
+    };
+
+    @Override
+    public void registerHints( RuntimeHints hints, ClassLoader classLoader ) {
+        for ( String type : msal4jJacksonTypes ) {
+            hints.reflection().registerType( TypeReference.of(type), MemberCategory.values() );
+        }
+        // BouncyCastle loads its algorithm mappings and SPI classes by name (ES256K receipt verification, see DidKeyStore)
+        for ( String type : bouncyCastleTypes ) {
+            hints.reflection().registerType( TypeReference.of(type), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS );
+        }
+        // UI served from classpath:/static (see spring.web.resources.static-locations)
+        hints.resources().registerPattern( "static/*" );
+        // built-in request templates, see RequestTemplateRegistry
+        hints.resources().registerPattern( "requests/*.json" );
+    }
+
+} // cls
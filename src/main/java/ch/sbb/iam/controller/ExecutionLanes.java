@@ -0,0 +1,115 @@
+package ch.sbb.iam.controller;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.logging.*;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.http.*;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Separate thread pools for the endpoints of the controllers, so a flood of browser polls or slow calls to the
+ * VC Request API can't delay the callbacks of the VC Request API. The handlers return a CompletableFuture which frees
+ * the Tomcat worker thread. Each lane has its own bounded queue, a request is answered with 503 if the queue is full.
+ * The pools are registered as executor metrics (name=lane.callback, lane.status, lane.request).
+ * The request lane is also the executor of Spring MVC async processing, so the streamed VC Request API responses
+ * (StreamingResponseBody) are transferred in the request lane and not in an unbounded default executor.
+ */
+@Component
+public class ExecutionLanes implements WebMvcConfigurer {
+    private static final Logger lgr = Logger.getLogger(ExecutionLanes.class.getName());
+
+    public enum Lane {
+        // callbacks of the VC Request API
+        CALLBACK,
+        // status reads (UI polling, B2C, details)
+        STATUS,
+        // request creation, calls the VC Request API
+        REQUEST
+    }
+
+    private final Map<Lane, ThreadPoolExecutor> pools = new EnumMap<>(Lane.class);
+    private final Map<Lane, ExecutorService> executors = new EnumMap<>(Lane.class);
+    private final Map<Lane, Counter> rejected = new EnumMap<>(Lane.class);
+
+    public ExecutionLanes( MeterRegistry registry
+                         , @Value("${aadvc_CallbackThreads:4}") int callbackThreads
+                         , @Value("${aadvc_CallbackQueueSize:200}") int callbackQueueSize
+                         , @Value("${aadvc_StatusThreads:8}") int statusThreads
+                         , @Value("${aadvc_StatusQueueSize:500}") int statusQueueSize
+                         , @Value("${aadvc_RequestThreads:8}") int requestThreads
+                         , @Value("${aadvc_RequestQueueSize:50}") int requestQueueSize ) {
+        add( registry, Lane.CALLBACK, callbackThreads, callbackQueueSize );
+        add( registry, Lane.STATUS, statusThreads, statusQueueSize );
+        add( registry, Lane.REQUEST, requestThreads, requestQueueSize );
+    }
+
+    private void add( MeterRegistry registry, Lane lane, int threads, int queueSize ) {
+        String name = "lane." + lane.name().toLowerCase(Locale.ROOT);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS
+                                                        , new ArrayBlockingQueue<>( queueSize )
+                                                        , new CustomizableThreadFactory( name + "-" ) );
+        pools.put( lane, pool );
+        executors.put( lane, ExecutorServiceMetrics.monitor( registry, pool, name ) );
+        rejected.put( lane, Counter.builder( "lane.rejected" ).tag( "lane", name ).register( registry ) );
+        lgr.info( name + ": " + threads + " threads, queue size " + queueSize );
+    }
+
+    /**
+     * runs the handler in the thread pool of the lane
+     * @param lane
+     * @param handler request handling, runs in a thread of the lane
+     * @return response of the handler, 503 if the queue of the lane is full
+     */
+    public <T> CompletableFuture<ResponseEntity<T>> submit( Lane lane, Supplier<ResponseEntity<T>> handler ) {
+        try {
+            return CompletableFuture.supplyAsync( handler, executors.get( lane ) );
+        } catch( RejectedExecutionException ex ) {
+            rejected.get( lane ).increment();
+            lgr.warning( "lane " + lane + " saturated, request rejected" );
+            return CompletableFuture.completedFuture( ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                                                    .header(HttpHeaders.RETRY_AFTER, "1")
+                                                                    .build() );
+        }
+    }
+
+    /**
+     * Spring MVC runs StreamingResponseBody in this executor. The timeout is spring.mvc.async.request-timeout.
+     */
+    @Override
+    public void configureAsyncSupport( AsyncSupportConfigurer configurer ) {
+        configurer.setTaskExecutor( new TaskExecutorAdapter( task -> executeStream( Lane.REQUEST, task ) ) );
+    }
+
+    /**
+     * runs the transfer of a streamed response in the thread pool of the lane. If the queue of the lane is full
+     * the transfer runs in the calling Tomcat thread instead of being rejected, the upstream response has been
+     * received already and must be consumed or cancelled to release the connection.
+     */
+    private void executeStream( Lane lane, Runnable task ) {
+        try {
+            executors.get( lane ).execute( task );
+        } catch( RejectedExecutionException ex ) {
+            lgr.warning( "lane " + lane + " saturated, response streamed in calling thread" );
+            task.run();
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pools.values().forEach( ThreadPoolExecutor::shutdown );
+    }
+
+} // cls
@@ -0,0 +1,34 @@
+package ch.sbb.iam.controller;
+
+import java.time.Duration;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+
+/**
+ * Same semantics as Caffeine.expireAfterWrite, but as variable expiration so entries can be put with their
+ * remaining lifetime when they are restored from a snapshot (see SessionSnapshot)
+ */
+class ExpireAfterWrite<K, V> implements Expiry<K, V> {
+
+    private final long nanos;
+
+    ExpireAfterWrite( Duration duration ) {
+        this.nanos = duration.toNanos();
+    }
+
+    @Override
+    public long expireAfterCreate( K key, V value, long currentTime ) {
+        return nanos;
+    }
+
+    @Override
+    public long expireAfterUpdate( K key, V value, long currentTime, long currentDuration ) {
+        return nanos;
+    }
+
+    @Override
+    public long expireAfterRead( K key, V value, long currentTime, long currentDuration ) {
+        return currentDuration;
+    }
+
+} // cls
@@ -1,7 +1,9 @@
 package ch.sbb.iam.controller;
 
 import jakarta.servlet.http.HttpServletRequest;
+import java.time.Duration;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 import java.util.logging.*;
 import java.util.concurrent.*;
 import java.util.stream.*;
@@ -14,7 +16,10 @@ import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import org.springframework.http.*;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.beans.factory.annotation.*;
@@ -22,16 +27,29 @@ import org.springframework.cache.annotation.*;
 import com.github.benmanes.caffeine.cache.*;
 import com.microsoft.aad.msal4j.*;
 
+import ch.sbb.iam.controller.ExecutionLanes.Lane;
+import ch.sbb.iam.qr.QrCodeRenderer;
+import ch.sbb.iam.template.RequestTemplateRegistry;
+
 @RestController
 @EnableCaching
 public class IssuerController {
     private static final Logger lgr = Logger.getLogger(IssuerController.class.getName());
 
     private final Cache<String, String> cache = Caffeine.newBuilder()
-                                            .expireAfterWrite(15, TimeUnit.MINUTES)
+                                            .expireAfter(new ExpireAfterWrite<>(Duration.ofMinutes(15)))
                                             .maximumSize(100)
                                             .build();
 
+    // issuance sessions (id == correlationId)
+    private final Cache<String, SessionState> sessions;
+
+    // request URL (openid-vc://...) of the issuance sessions, rendered as QR code by /api/issuer/qrcode
+    private final Cache<String, String> requestUrls;
+
+    // requestStatus values of the callbacks handled by this controller
+    private static final Set<SessionStatus> callbackStatuses = EnumSet.of( SessionStatus.REQUEST_RETRIEVED, SessionStatus.ISSUANCE_SUCCESSFUL, SessionStatus.ISSUANCE_ERROR );
+
     // *********************************************************************************
     // application properties - from envvars
     // *********************************************************************************
@@ -62,32 +80,31 @@ public class IssuerController {
     @Value("${aadvc_CredentialManifest}")
     private String credentialManifest;
 
-    private final static String issuerBaseRequest = """
-        {
-          "includeQRCode": true,
-          "callback": {
-            "url": "",
-            "state": "STATEWILLBESETINCODE",
-            "headers": {
-              "api-key": "OPTIONAL API-KEY for ISSUANCE CALLBACK API"
-            }
-          },
-          "authority": "",
-          "registration": {
-            "clientName": "Snoopfish Community Member Issuer",
-            "purpose": "Please accept the card to prove you are a Snoopfish community member"
-        },
-          "type": "SnoopfishCommunityMember",
-          "manifest": "",
-          "pin": {
-            "value": "PIN_IS_SET_IN_CODE",
-            "length": 4
-          },
-          "claims": {
-            "given_name": "FIRSTNAME",
-            "family_name": "LASTNAME"
-          }
-        }""";
+    @Autowired
+    private RequestTemplateRegistry requestTemplates;
+
+    @Autowired
+    private ExecutionLanes lanes;
+
+    @Autowired
+    private QrCodeRenderer qrCodeRenderer;
+
+    // looks for unknown sessions in the snapshots written by other instances (set by SessionSnapshot)
+    private volatile BooleanSupplier sessionRestorer = () -> false;
+
+    /**
+     * @param sessionCacheSize max. number of in-flight sessions kept in memory
+     */
+    public IssuerController( @Value("${aadvc_SessionCacheSize:100}") long sessionCacheSize ) {
+        sessions = Caffeine.newBuilder()
+                           .expireAfter(new ExpireAfterWrite<>(Duration.ofMinutes(15)))
+                           .maximumSize(sessionCacheSize)
+                           .build();
+        requestUrls = Caffeine.newBuilder()
+                              .expireAfter(new ExpireAfterWrite<>(Duration.ofMinutes(15)))
+                              .maximumSize(sessionCacheSize)
+                              .build();
+    }
 
     // *********************************************************************************
     // helpers
@@ -115,18 +132,7 @@ public class IssuerController {
         return new String(Base64.getUrlDecoder().decode(base64String), StandardCharsets.UTF_8);
     } 
 
-    private static String readFileAllText(String filePath)
-    {
-        StringBuilder contentBuilder = new StringBuilder();
-        try (Stream<String> stream = Files.lines( Paths.get(filePath), StandardCharsets.UTF_8)) {
-            stream.forEach(s -> contentBuilder.append(s).append("\n"));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return contentBuilder.toString();
-    }
-
-    private String callVCClientAPI( String payload ) {
+    private String getAccessToken() {
         String accessToken = "";
         try {
             accessToken = cache.getIfPresent( "MSALAccessToken" );
@@ -139,6 +145,19 @@ public class IssuerController {
             ex.printStackTrace();
             return null;
         }
+        return accessToken;
+    }
+
+    /**
+     * calls the VC Request API. The response body is not read here, it is streamed to the client by the caller
+     * @param payload request payload
+     * @return response with status and headers, null if no access token could be acquired
+     */
+    private ResponseEntity<Flux<DataBuffer>> callVCClientAPI( String payload ) {
+        String accessToken = getAccessToken();
+        if ( accessToken == null ) {
+            return null;
+        }
         String endpoint = apiEndpoint.replace("http://", "https://" ) + "verifiableCredentials/createIssuanceRequest";
         lgr.info( "callVCClientAPI: " + endpoint + "\n" + payload );
         WebClient client = WebClient.create();
@@ -149,9 +168,13 @@ public class IssuerController {
                                                     .accept(MediaType.APPLICATION_JSON)
                                                     .body(BodyInserters.fromObject(payload))
                                                     .retrieve();
-        String responseBody = responseSpec.bodyToMono(String.class).block();
-        lgr.info( responseBody );
-        return responseBody;
+        ResponseEntity<Flux<DataBuffer>> response = responseSpec.toEntityFlux(DataBuffer.class).block();
+        lgr.info( "callVCClientAPI: " + response.getStatusCode() );
+        return response;
+    }
+
+    private static ResponseEntity<StreamingResponseBody> textResponse( HttpStatus status, String message ) {
+        return ResponseEntity.status(status).body( out -> out.write( message.getBytes(StandardCharsets.UTF_8) ) );
     }
 
     private String downloadManifest( String manifestURL ) {
@@ -166,6 +189,18 @@ public class IssuerController {
         return responseBody;
     }
 
+    private String loadManifest( String manifestURL ) throws IOException {
+        String manifest = cache.getIfPresent( "manifest:" + manifestURL );
+        if ( manifest == null ) {
+            String responseBody = downloadManifest(manifestURL);
+            ObjectMapper objectMapper = new ObjectMapper();
+            JsonNode resp = objectMapper.readTree( responseBody );
+            manifest = base64Decode( resp.path("token").asText().split("\\.")[1] );
+            cache.put( "manifest:" + manifestURL, manifest );
+        }
+        return manifest;
+    }
+
     public String generatePinCode( Integer length ) {
         int min = 0;
         int max = (int)(Integer.parseInt( "999999999999999999999".substring(0, length) ));
@@ -208,99 +243,226 @@ public class IssuerController {
         return result.accessToken();
     }
 
+    /**
+     * @return the manifest url of the request template, the configured manifest if the template doesn't define one
+     */
+    private String manifestOf( JsonNode rootNode ) {
+        String manifest = rootNode.path("manifest").asText();
+        return manifest.isEmpty() ? credentialManifest : manifest;
+    }
+
+    /**
+     * builds the issuance request payload for the VC Request API from the request template of the credential type
+     * @param credentialType credential type of the template, null for the default type
+     * @param callback url the VC Request API calls back to
+     * @param correlationId state value of the request
+     * @param userAgent user agent of the caller, the pin is omitted for mobile devices
+     * @return issuance request payload, containing the generated pin if one is required. null if the credential type is unknown
+     */
+    private JsonNode buildIssuancePayload( String credentialType, String callback, String correlationId, String userAgent ) {
+        // payload is loaded from file and then partly modified here
+        JsonNode rootNode = requestTemplates.issuanceRequest( credentialType );
+        if ( rootNode == null ) {
+            return null;
+        }
+        if (fromMobile(userAgent)) {
+            ((ObjectNode)rootNode).remove("pin");
+        }
+        ((ObjectNode)rootNode).put("authority", issuerAuthority );
+        // the QR code is rendered by /api/issuer/qrcode, no need to receive it as base64 PNG
+        ((ObjectNode)rootNode).put("includeQRCode", false );
+        // modify the callback method to make it easier to debug
+        // with tools like ngrok since the URI changes all the time
+        // this way you don't need to modify the callback URL in the payload every time
+        // ngrok changes the URI
+        ((ObjectNode)(rootNode.path("callback"))).put("url", callback );
+        // modify payload with new state, the state is used to be able to update the UI when callbacks are received from the VC Service
+        ((ObjectNode)(rootNode.path("callback"))).put("state", correlationId );
+        // set our api-key so we check that callbacks are legitimate
+        ((ObjectNode)(rootNode.path("callback").path("headers"))).put("api-key", apiKey );
+        // get the manifest from the application.properties (envvars), this is the URL to the credential created in the azure portal.
+        // the display and rules file to create the credential can be dound in the credentialfiles directory
+        // make sure the credentialtype in the issuance payload ma
+        ((ObjectNode)rootNode).put("manifest", manifestOf( rootNode ) );
+        // check if pin is required, if found make sure we set a new random pin
+        // pincode is only used when the payload contains claim value pairs which results in an IDTokenhint
+        if ( rootNode.has("pin") ) {
+            int pinCodeLength = rootNode.path("pin").path("length").asInt();
+            // don't use pin if user is on mobile device
+            if ( pinCodeLength <= 0 || userAgent.contains("Android") || userAgent.contains("iPhone") ) {
+                ((ObjectNode)rootNode).remove("pin");
+            } else {
+                ((ObjectNode)(rootNode.path("pin"))).put("value", generatePinCode( pinCodeLength ) );
+            }
+        }
+        // here you could change the payload manifest and change the firstname and lastname. The fieldNames should match your Rules definition
+        if ( rootNode.has("claims") ) {
+            ObjectNode claims = ((ObjectNode)rootNode.path("claims"));
+            if ( claims.has("given_name") ) {
+                claims.put("given_name", "Christian" );
+            }
+            if ( claims.has("family_name") ) {
+                claims.put("family_name", "Egli" );
+            }
+        }
+        return rootNode;
+    }
+
     /**
      * This method is called from the UI to initiate the issuance of the verifiable credential
      * @param request
      * @param headers
+     * @param type credential type to issue, the default type if missing
      * @return JSON object with the address to the presentation request and optionally a QR code and a state value which can be used to check on the response status
      */
     @GetMapping("/api/issuer/issuance-request")
-    public ResponseEntity<String> issueRequest( HttpServletRequest request, @RequestHeader HttpHeaders headers ) {
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> issueRequest( HttpServletRequest request, @RequestHeader HttpHeaders headers
+                                                                 , @RequestParam(required = false) String type ) {
         traceHttpRequest( request );
-        // payload is loaded from file and then partly modified here
-        String jsonRequest = issuerBaseRequest;
-
         String callback = getBasePath( request ) + "api/issuer/issue-request-callback";
+        String userAgent = request.getHeader("user-agent");
+        return lanes.submit( Lane.REQUEST, () -> createIssuanceRequest( callback, userAgent, type ) );
+    }
+
+    private ResponseEntity<StreamingResponseBody> createIssuanceRequest( String callback, String userAgent, String type ) {
         String correlationId = java.util.UUID.randomUUID().toString();
         ObjectMapper objectMapper = new ObjectMapper();
         String payload = "{}";
         Integer pinCodeLength = 0;
         String pinCode = null;
-        String responseBody = "";
+        ResponseEntity<Flux<DataBuffer>> apiResponse = null;
         try {
             ObjectNode data = objectMapper.createObjectNode();
             data.put("status", "request_created" );
             data.put("message", "Waiting for QR code to be scanned" );
-            cache.put( correlationId, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data) );
+            sessions.put( correlationId, new SessionState( SessionStatus.REQUEST_CREATED, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data) ) );
         
-            JsonNode rootNode = objectMapper.readTree( jsonRequest );
-            if (fromMobile(request)) {
-                ((ObjectNode)rootNode).remove("pin");
+            JsonNode rootNode = buildIssuancePayload( type, callback, correlationId, userAgent );
+            if ( rootNode == null ) {
+                sessions.invalidate( correlationId );
+                return textResponse( HttpStatus.BAD_REQUEST, "Unknown credential type" );
             }
-            ((ObjectNode)rootNode).put("authority", issuerAuthority );
-            // modify the callback method to make it easier to debug
-            // with tools like ngrok since the URI changes all the time
-            // this way you don't need to modify the callback URL in the payload every time
-            // ngrok changes the URI
-            ((ObjectNode)(rootNode.path("callback"))).put("url", callback );
-            // modify payload with new state, the state is used to be able to update the UI when callbacks are received from the VC Service
-            ((ObjectNode)(rootNode.path("callback"))).put("state", correlationId );
-            // set our api-key so we check that callbacks are legitimate
-            ((ObjectNode)(rootNode.path("callback").path("headers"))).put("api-key", apiKey );
-            // get the manifest from the application.properties (envvars), this is the URL to the credential created in the azure portal.
-            // the display and rules file to create the credential can be dound in the credentialfiles directory
-            // make sure the credentialtype in the issuance payload ma
-            ((ObjectNode)rootNode).put("manifest", credentialManifest );
-            // check if pin is required, if found make sure we set a new random pin
-            // pincode is only used when the payload contains claim value pairs which results in an IDTokenhint
             if ( rootNode.has("pin") ) {
                 pinCodeLength = rootNode.path("pin").path("length").asInt();
-                // don't use pin if user is on mobile device
-                String userAgent = request.getHeader("user-agent");
-                if ( pinCodeLength <= 0 || userAgent.contains("Android") || userAgent.contains("iPhone") ) {
-                    ((ObjectNode)rootNode).remove("pin");
-                } else {
-                    pinCode = generatePinCode( pinCodeLength );
-                    ((ObjectNode)(rootNode.path("pin"))).put("value", pinCode );
-                }
-            }
-            // here you could change the payload manifest and change the firstname and lastname. The fieldNames should match your Rules definition
-            if ( rootNode.has("claims") ) {
-                ObjectNode claims = ((ObjectNode)rootNode.path("claims"));
-                if ( claims.has("given_name") ) {
-                    claims.put("given_name", "Christian" );
-                }
-                if ( claims.has("family_name") ) {
-                    claims.put("family_name", "Egli" );
-                }
+                pinCode = rootNode.path("pin").path("value").asText();
             }
             // The VC Request API is an authenticated API. We need to clientid and secret to create an access token which
             // needs to be send as bearer to the VC Request API
             payload = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(rootNode);
-            responseBody = callVCClientAPI( payload );
-            JsonNode apiResponse = objectMapper.readTree( responseBody );
-            ((ObjectNode)apiResponse).put( "id", correlationId );
-            if ( pinCodeLength > 0 ) {
-                ((ObjectNode)apiResponse).put( "pin", pinCode );
-            }
-            responseBody = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(apiResponse);
+            apiResponse = callVCClientAPI( payload );
         } catch (java.io.IOException ex) {
             ex.printStackTrace();
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Technical error" );
+            return textResponse( HttpStatus.BAD_REQUEST, "Technical error" );
         }
-
+        if ( apiResponse == null ) {
+            return textResponse( HttpStatus.BAD_REQUEST, "Technical error" );
+        }
+        // the response of the VC Request API is streamed to the UI, id and pin are added on the fly
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put( "id", correlationId );
+        if ( pinCodeLength > 0 ) {
+            fields.put( "pin", pinCode );
+        }
+        JsonObjectSplicer splicer = new JsonObjectSplicer( fields, 8192 );
+        Flux<DataBuffer> apiResponseBody = apiResponse.getBody();
         HttpHeaders responseHeaders = new HttpHeaders();
         responseHeaders.set("Content-Type", "application/json");
         return ResponseEntity.ok()
           .headers(responseHeaders)
-          .body( responseBody );
+          .body( out -> {
+              splicer.transfer( apiResponseBody, out );
+              rememberRequestUrl( correlationId, splicer.captured() );
+          } );
+    }
+
+    /**
+     * keeps the request URL of the VC Request API response for the QR code of the session
+     * @param captured response of the VC Request API, null if it was too large to keep
+     */
+    private void rememberRequestUrl( String correlationId, byte[] captured ) {
+        if ( captured == null ) {
+            lgr.warning( "no request URL for QR code of " + correlationId );
+            return;
+        }
+        try {
+            String url = JsonObjectSplicer.stringField( captured, "url" );
+            if ( url != null && !url.isEmpty() ) {
+                requestUrls.put( correlationId, url );
+            }
+        } catch (java.io.IOException ex) {
+            lgr.warning( "no request URL for QR code of " + correlationId + ": " + ex.getMessage() );
+        }
+    }
+
+    /**
+     * This method is called from the UI to display the QR code of the issuance request
+     * @param request
+     * @param id the correlation id returned by issuance-request
+     * @param format svg (default) or png
+     * @return the QR code of the request URL
+     */
+    @GetMapping("/api/issuer/qrcode")
+    public CompletableFuture<ResponseEntity<byte[]>> issuanceQrCode( HttpServletRequest request
+                                                                  , @RequestParam String id
+                                                                  , @RequestParam(required = false) String format ) {
+        traceHttpRequest( request );
+        return lanes.submit( Lane.STATUS, () -> renderQrCode( id, format ) );
     }
 
-    private boolean fromMobile(HttpServletRequest request) {
-        String userAgent = Optional.ofNullable(request.getHeader(HttpHeaders.USER_AGENT)).orElse("").toLowerCase(Locale.ROOT);
+    private ResponseEntity<byte[]> renderQrCode( String id, String formatName ) {
+        QrCodeRenderer.Format format = QrCodeRenderer.Format.of( formatName );
+        if ( format == null ) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType( MediaType.TEXT_PLAIN ).body( "Unknown format".getBytes( StandardCharsets.UTF_8 ) );
+        }
+        String url = requestUrls.getIfPresent( id );
+        if ( url == null ) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType( MediaType.TEXT_PLAIN ).body( "Unknown id".getBytes( StandardCharsets.UTF_8 ) );
+        }
+        try {
+            return ResponseEntity.ok()
+              .contentType( format.mediaType() )
+              .cacheControl( CacheControl.maxAge( Duration.ofMinutes(15) ).cachePrivate() )
+              .body( qrCodeRenderer.render( url, format ) );
+        } catch (java.io.IOException ex) {
+            ex.printStackTrace();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType( MediaType.TEXT_PLAIN ).body( "Technical error".getBytes( StandardCharsets.UTF_8 ) );
+        }
+    }
+
+    private boolean fromMobile(String userAgent) {
+        userAgent = Optional.ofNullable(userAgent).orElse("").toLowerCase(Locale.ROOT);
         return  userAgent.contains("android") || userAgent.contains("iphone");
     }
 
+    /**
+     * maps a callback from the VC Request API to the session data shown to the UI
+     * @param objectMapper
+     * @param issuanceResponse callback json payload
+     * @return session data or null if the requestStatus is not supported
+     */
+    private ObjectNode parseIssuanceCallback( ObjectMapper objectMapper, JsonNode issuanceResponse ) {
+        String requestStatus = issuanceResponse.path("requestStatus").asText();
+        ObjectNode data = null;
+        // there are 2 different callbacks. 1 if the QR code is scanned (or deeplink has been followed)
+        // Scanning the QR code makes Authenticator download the specific request from the server
+        // the request will be deleted from the server immediately.
+        // That's why it is so important to capture this callback and relay this to the UI so the UI can hide
+        // the QR code to prevent the user from scanning it twice (resulting in an error since the request is already deleted)
+        if ( requestStatus.equals( "request_retrieved" )  ) {
+            data = objectMapper.createObjectNode();
+            data.put("message", "QR Code is scanned. Waiting for issuance to complete..." );
+        }
+        if ( requestStatus.equals("issuance_successful") ) {
+            data = objectMapper.createObjectNode();
+            data.put("message", "Credential successfully issued" );
+        }
+        if ( requestStatus.equals( "issuance_error" ) ) {
+            data = objectMapper.createObjectNode();
+            data.put("message", issuanceResponse.path("error").path("message").asText() );
+        }
+        return data;
+    }
+
     /**
      * This method is called by the VC Request API when the user scans a QR code and presents a Verifiable Credential to the service
      * @param request
@@ -309,51 +471,51 @@ public class IssuerController {
      * @return
      */
     @RequestMapping(value = "/api/issuer/issue-request-callback", method = RequestMethod.POST, produces = "application/json", consumes = "application/json")
-    public ResponseEntity<String> issueRequestCallback( HttpServletRequest request
-                                                      , @RequestHeader HttpHeaders headers
-                                                      , @RequestBody String body ) {
+    public CompletableFuture<ResponseEntity<String>> issueRequestCallback( HttpServletRequest request
+                                                                         , @RequestHeader HttpHeaders headers
+                                                                         , @RequestBody String body ) {
         traceHttpRequest( request );
         lgr.info( body );
+        String apiKeyHeader = request.getHeader("api-key");
+        return lanes.submit( Lane.CALLBACK, () -> handleIssuanceCallback( apiKeyHeader, body ) );
+    }
+
+    private ResponseEntity<String> handleIssuanceCallback( String apiKeyHeader, String body ) {
         ObjectMapper objectMapper = new ObjectMapper();
         try {
             // we need to get back our api-key in the header to make sure we don't accept unsolicited calls
-            if ( !request.getHeader("api-key").equals(apiKey) ) {
+            if ( !apiKey.equals(apiKeyHeader) ) {
                 lgr.info( "api-key wrong or missing" );
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body( "api-key wrong or missing" );
             }
             JsonNode issuanceResponse = objectMapper.readTree( body );
             String requestStatus = issuanceResponse.path("requestStatus").asText();
-            ObjectNode data = null;
-            // there are 2 different callbacks. 1 if the QR code is scanned (or deeplink has been followed)
-            // Scanning the QR code makes Authenticator download the specific request from the server
-            // the request will be deleted from the server immediately.
-            // That's why it is so important to capture this callback and relay this to the UI so the UI can hide
-            // the QR code to prevent the user from scanning it twice (resulting in an error since the request is already deleted)
-            if ( requestStatus.equals( "request_retrieved" )  ) {
-                data = objectMapper.createObjectNode();
-                data.put("message", "QR Code is scanned. Waiting for issuance to complete..." );
+            SessionStatus nextStatus = SessionStatus.of( requestStatus );
+            if ( nextStatus == null || !callbackStatuses.contains( nextStatus ) ) {
+                lgr.info( "Unsupported requestStatus" );
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unsupported requestStatus" );
             }
-            if ( requestStatus.equals("issuance_successful") ) {
-                data = objectMapper.createObjectNode();
-                data.put("message", "Credential successfully issued" );
+            String id = issuanceResponse.path("state").asText(); // id == correlationId
+            SessionState session = session( id );
+            if ( session == null ) {
+                lgr.info( "Unknown state: " + id );
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unknown state" );
             }
-            if ( requestStatus.equals( "issuance_error" ) ) {
-                data = objectMapper.createObjectNode();
-                data.put("message", issuanceResponse.path("error").path("message").asText() );
+            // callbacks can arrive late, be retried or duplicated. They are acknowledged but don't change the session
+            // if it already has the same or a later status, so a late request_retrieved can't overwrite the result.
+            // The transition is claimed first, so concurrent duplicates are rejected before the expensive work
+            if ( !SessionState.claim( sessions, id, nextStatus ) ) {
+                lgr.info( "Ignoring " + requestStatus + " for " + id + " in status " + session.status().value() + ", or already in progress" );
+                return ResponseEntity.ok().body( "{}" );
             }
-            if ( data != null ) {
-                String id = issuanceResponse.path("state").asText();
-                String dataChk = cache.getIfPresent( id ); // id == correlationId
-                if ( dataChk == null ) {
-                    lgr.info( "Unknown state: " + id );
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unknown state" );
-                } else {
-                    data.put("status", requestStatus );
-                    cache.put( id, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data) );
-                }                
-            } else {
-                lgr.info( "Unsupported requestStatus" );
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unsupported requestStatus" );
+            try {
+                ObjectNode data = parseIssuanceCallback( objectMapper, issuanceResponse );
+                data.put("status", requestStatus );
+                if ( !SessionState.transition( sessions, id, nextStatus, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data) ) ) {
+                    lgr.info( "Ignoring " + requestStatus + " for " + id + ", session changed concurrently or expired" );
+                }
+            } finally {
+                SessionState.release( sessions, id, nextStatus );
             }
         } catch (java.io.IOException ex) {
             ex.printStackTrace();
@@ -373,12 +535,17 @@ public class IssuerController {
      * @return response to the browser on the progress of the issuance
      */
     @GetMapping("/api/issuer/issuance-response")
-    public ResponseEntity<String> issueResponseStatus( HttpServletRequest request
-                                                            , @RequestHeader HttpHeaders headers
-                                                            , @RequestParam String id ) {
+    public CompletableFuture<ResponseEntity<String>> issueResponseStatus( HttpServletRequest request
+                                                                               , @RequestHeader HttpHeaders headers
+                                                                               , @RequestParam String id ) {
         traceHttpRequest( request );
+        return lanes.submit( Lane.STATUS, () -> readIssuanceStatus( id ) );
+    }
+
+    private ResponseEntity<String> readIssuanceStatus( String id ) {
         String responseBody = "";
-        String data = cache.getIfPresent( id ); // id == correlationId/state
+        SessionState session = session( id ); // id == correlationId/state
+        String data = session == null ? null : session.data();
         if ( !(data == null || data.isEmpty()) ) {
             ObjectMapper objectMapper = new ObjectMapper();
             try {
@@ -400,21 +567,24 @@ public class IssuerController {
     }
 
     @GetMapping("/api/issuer/get-manifest")
-    public ResponseEntity<String> getManifest( HttpServletRequest request
-                                            , @RequestHeader HttpHeaders headers ) {
+    public CompletableFuture<ResponseEntity<String>> getManifest( HttpServletRequest request
+                                                               , @RequestHeader HttpHeaders headers
+                                                               , @RequestParam(required = false) String type ) {
         traceHttpRequest( request );
-        String manifest = cache.getIfPresent( "manifest" );
-        if ( manifest == null ) {
-            String responseBody = downloadManifest(credentialManifest);
-            ObjectMapper objectMapper = new ObjectMapper();
-            try {
-                JsonNode resp = objectMapper.readTree( responseBody );
-                manifest = base64Decode( resp.path("token").asText().split("\\.")[1] );
-                cache.put( "manifest", manifest );
-            } catch (java.io.IOException ex) {
-                ex.printStackTrace();
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Technical error" );
-            }
+        return lanes.submit( Lane.REQUEST, () -> readManifest( type ) );
+    }
+
+    private ResponseEntity<String> readManifest( String type ) {
+        JsonNode rootNode = requestTemplates.issuanceRequest( type );
+        if ( rootNode == null ) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unknown credential type" );
+        }
+        String manifest = null;
+        try {
+            manifest = loadManifest( manifestOf( rootNode ) );
+        } catch (java.io.IOException ex) {
+            ex.printStackTrace();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Technical error" );
         }
         HttpHeaders responseHeaders = new HttpHeaders();
         responseHeaders.set("Content-Type", "application/json");
@@ -423,4 +593,65 @@ public class IssuerController {
           .body( manifest );
     }
 
+    /**
+     * @return the session, null if it is neither known to this instance nor in a new snapshot of another instance
+     */
+    private SessionState session( String id ) {
+        SessionState session = sessions.getIfPresent( id );
+        if ( session == null && sessionRestorer.getAsBoolean() ) {
+            session = sessions.getIfPresent( id );
+        }
+        return session;
+    }
+
+    void setSessionRestorer( BooleanSupplier sessionRestorer ) {
+        this.sessionRestorer = sessionRestorer;
+    }
+
+    /**
+     * adds the in-flight sessions, their request URLs and the cached manifests to the snapshot written at shutdown
+     */
+    void writeSnapshot( SessionSnapshot.Writer writer ) throws IOException {
+        writer.section( "issuer.sessions", sessions, key -> true, SessionSnapshot::encodeSession );
+        writer.section( "issuer.requestUrls", requestUrls, key -> true, SessionSnapshot::encodeString );
+        writer.section( "issuer.manifests", cache, key -> key.startsWith("manifest:"), SessionSnapshot::encodeString );
+    }
+
+    void restoreSnapshot( SessionSnapshot.Reader reader ) {
+        reader.section( "issuer.sessions", sessions, SessionSnapshot::decodeSession );
+        reader.section( "issuer.requestUrls", requestUrls, SessionSnapshot::decodeString );
+        reader.section( "issuer.manifests", cache, SessionSnapshot::decodeString );
+    }
+
+    /**
+     * warm-up at startup: acquires the access token, downloads the manifests and runs the payload building and
+     * callback parsing code paths against synthetic data, so the first issuance request does not pay for it
+     */
+    void warmUp() throws IOException {
+        if ( getAccessToken() == null ) {
+            lgr.warning( "warm-up: no access token acquired" );
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        String correlationId = "warmup-" + java.util.UUID.randomUUID().toString();
+        for ( String credentialType : requestTemplates.issuanceTypes() ) {
+            JsonNode rootNode = buildIssuancePayload( credentialType, "https://localhost/api/issuer/issue-request-callback", correlationId, "Mozilla/5.0 (warm-up)" );
+            objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(rootNode);
+            try {
+                loadManifest( manifestOf( rootNode ) );
+            } catch( Exception ex ) {
+                lgr.log( Level.WARNING, "warm-up: manifest download failed for " + credentialType, ex );
+            }
+        }
+        for ( String requestStatus : List.of( "request_retrieved", "issuance_successful", "issuance_error" ) ) {
+            ObjectNode issuanceResponse = objectMapper.createObjectNode();
+            issuanceResponse.put("requestId", correlationId );
+            issuanceResponse.put("requestStatus", requestStatus );
+            issuanceResponse.put("state", correlationId );
+            issuanceResponse.putObject("error").put("message", "warm-up" );
+            ObjectNode data = parseIssuanceCallback( objectMapper, objectMapper.readTree( issuanceResponse.toString() ) );
+            data.put("status", requestStatus );
+            objectMapper.readTree( objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data) );
+        }
+    }
+
 } // cls
@@ -0,0 +1,167 @@
+package ch.sbb.iam.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+
+/**
+ * Streams a JSON object received from the VC Request API to the client buffer by buffer and adds fields
+ * (e.g. id and pin) right after the opening brace. The document is never materialized as String or JsonNode,
+ * which matters for the issuance response containing the base64 QR code.
+ * Optionally a copy of small upstream documents is kept (e.g. to remember the request URL for the QR code).
+ */
+class JsonObjectSplicer {
+
+    private enum State { BEFORE_OBJECT, BEFORE_FIRST_FIELD, PASS_THROUGH }
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final byte[] fields;
+    private State state = State.BEFORE_OBJECT;
+    private final int captureLimit;
+    private ByteArrayOutputStream captured;
+
+    /**
+     * @param fields string fields to add to the JSON object, in order
+     * @param captureLimit max. size of the upstream document to keep a copy of, 0 to keep none
+     */
+    JsonObjectSplicer( Map<String, String> fields, int captureLimit ) {
+        this.captureLimit = captureLimit;
+        this.captured = captureLimit > 0 ? new ByteArrayOutputStream( Math.min( captureLimit, 1024 ) ) : null;
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        StringBuilder sb = new StringBuilder();
+        for ( Map.Entry<String, String> field : fields.entrySet() ) {
+            if ( sb.length() > 0 ) {
+                sb.append( ',' );
+            }
+            sb.append( '"' ).append( encoder.quoteAsString( field.getKey() ) ).append( "\":\"" )
+              .append( encoder.quoteAsString( field.getValue() ) ).append( '"' );
+        }
+        this.fields = sb.toString().getBytes( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * writes the body to the output stream. The buffers are requested one at a time and released after they are
+     * written. If writing fails (e.g. the client went away) or the body is not a JSON object, the upstream
+     * subscription is cancelled, so the buffers and the connection go back to the pool.
+     * @param body upstream response body
+     * @param out client output stream
+     */
+    void transfer( Flux<DataBuffer> body, OutputStream out ) throws IOException {
+        try {
+            DataBufferUtils.write( body.map( this::splice ), out )
+                           .doOnNext( DataBufferUtils::release )
+                           .then()
+                           .block();
+        } catch( RuntimeException ex ) {
+            if ( Exceptions.unwrap( ex ) instanceof IOException ioException ) {
+                throw ioException;
+            }
+            throw ex;
+        }
+        if ( state != State.PASS_THROUGH ) {
+            throw new IOException( "upstream response is not a JSON object" );
+        }
+    }
+
+    /**
+     * @return the upstream document after transfer, null if it was larger than the capture limit
+     */
+    byte[] captured() {
+        return captured == null ? null : captured.toByteArray();
+    }
+
+    /**
+     * reads a string field of a captured document with a streaming parser, which stops at the field. The other
+     * fields are skipped without building a tree.
+     * @param document JSON object
+     * @param name name of a top level field
+     * @return the value, null if the field is missing or not a string
+     */
+    static String stringField( byte[] document, String name ) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser( document )) {
+            if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+                return null;
+            }
+            while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ( name.equals( field ) ) {
+                    return value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the buffer itself once the fields are added, otherwise a new buffer with the fields added
+     *         (the buffer is released)
+     */
+    private DataBuffer splice( DataBuffer buffer ) {
+        capture( buffer );
+        if ( state == State.PASS_THROUGH ) {
+            return buffer;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream( buffer.readableByteCount() + fields.length + 1 );
+        try {
+            while ( state != State.PASS_THROUGH && buffer.readableByteCount() > 0 ) {
+                byte b = buffer.read();
+                if ( b == ' ' || b == '\t' || b == '\r' || b == '\n' ) {
+                    continue;
+                }
+                if ( state == State.BEFORE_OBJECT ) {
+                    if ( b != '{' ) {
+                        throw Exceptions.propagate( new IOException( "upstream response is not a JSON object" ) );
+                    }
+                    out.write( '{' );
+                    out.write( fields, 0, fields.length );
+                    state = State.BEFORE_FIRST_FIELD;
+                } else {
+                    if ( b != '}' && fields.length > 0 ) {
+                        out.write( ',' );
+                    }
+                    out.write( b );
+                    state = State.PASS_THROUGH;
+                }
+            }
+            byte[] rest = new byte[buffer.readableByteCount()];
+            buffer.read( rest );
+            out.write( rest, 0, rest.length );
+        } finally {
+            DataBufferUtils.release( buffer );
+        }
+        return DefaultDataBufferFactory.sharedInstance.wrap( out.toByteArray() );
+    }
+
+    private void capture( DataBuffer buffer ) {
+        if ( captured == null ) {
+            return;
+        }
+        int n = buffer.readableByteCount();
+        if ( captured.size() + n > captureLimit ) {
+            captured = null;
+            return;
+        }
+        byte[] bytes = new byte[n];
+        int readPosition = buffer.readPosition();
+        buffer.read( bytes );
+        buffer.readPosition( readPosition );
+        captured.write( bytes, 0, n );
+    }
+
+} // cls
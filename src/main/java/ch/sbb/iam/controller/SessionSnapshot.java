@@ -0,0 +1,407 @@
+package ch.sbb.iam.controller;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.*;
+import java.util.logging.*;
+import java.util.stream.*;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.stereotype.Component;
+import com.github.benmanes.caffeine.cache.*;
+
+/**
+ * Warm restart: the in-flight sessions and the cached manifests of the controllers are written to a binary snapshot
+ * file on graceful shutdown and restored by the next instances. Entries keep their remaining lifetime, expired
+ * entries are skipped. The access tokens are not written. Disabled if aadvc_SnapshotDirectory is empty.
+ *
+ * Every instance writes its own file (aadvc_InstanceId, default the host name) to the shared directory, so replicas
+ * don't overwrite each other. The files are merged at startup, before the web server accepts requests, and again
+ * when the directory changes: in a rolling deployment the old instance writes its file only after the new one has
+ * started. Changes are picked up by a WatchService and, as it doesn't see files written by other hosts on every
+ * shared file system, also when a callback or status read finds no session and the modification time of the
+ * directory has changed since the last merge. Merging never replaces a session the instance already has and doesn't
+ * take the file away from other replicas; a file is deleted once all its entries are expired.
+ *
+ * File format: int magic, int version, long written at, int section count, per section: name, int entry count,
+ * per entry: long expires at (epoch millis), key, value. Names, keys and values are written as int length + bytes.
+ * Sessions are written as byte length + status value, data. Files of other versions are skipped.
+ */
+@Component
+public class SessionSnapshot {
+    private static final Logger lgr = Logger.getLogger(SessionSnapshot.class.getName());
+
+    static final int MAGIC = 0x4d415353; // MASS
+    static final int VERSION = 2;
+    private static final String SUFFIX = ".snapshot";
+
+    private final IssuerController issuerController;
+    private final VerifierController verifierController;
+
+    // last modified time of the snapshot files already merged
+    private final Map<Path, FileTime> merged = new HashMap<>();
+    // last modified time of the directory at the last merge
+    private FileTime directoryModified;
+    // number of merges which restored entries
+    private volatile int restores;
+
+    private WatchService watchService;
+    private Thread watchThread;
+
+    @Value("${aadvc_SnapshotDirectory:}")
+    private String snapshotDirectory;
+
+    @Value("${aadvc_InstanceId:${HOSTNAME:}}")
+    private String instanceId;
+
+    public SessionSnapshot( IssuerController issuerController, VerifierController verifierController ) {
+        this.issuerController = issuerController;
+        this.verifierController = verifierController;
+    }
+
+    @PostConstruct
+    void restore() {
+        if ( snapshotDirectory.isEmpty() ) {
+            return;
+        }
+        if ( instanceId.isEmpty() ) {
+            instanceId = UUID.randomUUID().toString();
+        }
+        merge();
+        watch();
+        issuerController.setSessionRestorer( this::mergeIfChanged );
+        verifierController.setSessionRestorer( this::mergeIfChanged );
+    }
+
+    private void watch() {
+        Path dir = Paths.get( snapshotDirectory );
+        try {
+            watchService = dir.getFileSystem().newWatchService();
+            dir.register( watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY );
+        } catch( IOException ex ) {
+            lgr.log( Level.WARNING, "snapshots in " + snapshotDirectory + " can't be watched, they are merged when a session is missing", ex );
+            return;
+        }
+        watchThread = new Thread( () -> {
+            while ( !Thread.currentThread().isInterrupted() ) {
+                WatchKey key;
+                try {
+                    key = watchService.take();
+                } catch( InterruptedException | ClosedWatchServiceException ex ) {
+                    return;
+                }
+                boolean changed = key.pollEvents().stream().anyMatch( event ->
+                    event.kind() == StandardWatchEventKinds.OVERFLOW || event.context().toString().endsWith( SUFFIX ) );
+                key.reset();
+                if ( changed ) {
+                    merge();
+                }
+            }
+        }, "session-snapshot-watcher" );
+        watchThread.setDaemon( true );
+        watchThread.start();
+    }
+
+    /**
+     * called when a callback or status read finds no session: merges only if the directory changed since the last
+     * merge, so requests for unknown sessions don't scan the directory
+     * @return true if a snapshot file was merged
+     */
+    boolean mergeIfChanged() {
+        int before = restores;
+        synchronized ( this ) {
+            try {
+                if ( Files.getLastModifiedTime( Paths.get( snapshotDirectory ) ).equals( directoryModified ) ) {
+                    // a merge running meanwhile (e.g. by the watcher) may have restored the session
+                    return restores != before;
+                }
+            } catch( IOException ex ) {
+                return false;
+            }
+            return merge();
+        }
+    }
+
+    /**
+     * merges the snapshot files which are new or changed since the last merge into the caches of the controllers
+     * @return true if a snapshot file was merged
+     */
+    synchronized boolean merge() {
+        try {
+            // before the files are listed, so a file written meanwhile changes it again
+            directoryModified = Files.getLastModifiedTime( Paths.get( snapshotDirectory ) );
+        } catch( IOException ex ) {
+            directoryModified = null;
+        }
+        List<Path> files;
+        try (Stream<Path> list = Files.list( Paths.get( snapshotDirectory ) )) {
+            files = list.filter( f -> f.getFileName().toString().endsWith( SUFFIX ) ).collect( Collectors.toList() );
+        } catch( IOException ex ) {
+            lgr.log( Level.WARNING, "snapshots in " + snapshotDirectory + " could not be listed", ex );
+            return false;
+        }
+        boolean changed = false;
+        for ( Path path : files ) {
+            try {
+                FileTime modified = Files.getLastModifiedTime( path );
+                if ( !modified.equals( merged.get( path ) ) ) {
+                    merged.put( path, modified );
+                    changed |= merge( path );
+                }
+            } catch( IOException | RuntimeException ex ) {
+                // a corrupt or unreadable file is skipped until it changes, it must not fail the startup
+                lgr.log( Level.WARNING, "snapshot " + path + " could not be restored", ex );
+            }
+        }
+        if ( changed ) {
+            restores++;
+        }
+        return changed;
+    }
+
+    private boolean merge( Path path ) throws IOException {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        Reader reader;
+        try (FileChannel channel = FileChannel.open( path, StandardOpenOption.READ )) {
+            reader = new Reader( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ), now );
+            issuerController.restoreSnapshot( reader );
+            verifierController.restoreSnapshot( reader );
+            lgr.info( "snapshot restored from " + path + ": " + reader.restored + " entries in " + (System.nanoTime() - start) / 1_000_000 + " ms" );
+        } catch( BufferUnderflowException ex ) {
+            throw new IOException( "snapshot is truncated or corrupt", ex );
+        }
+        if ( reader.lastExpiry <= now ) {
+            Files.deleteIfExists( path );
+            merged.remove( path );
+        }
+        return reader.restored > 0;
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if ( watchThread != null ) {
+            watchThread.interrupt();
+        }
+        if ( watchService != null ) {
+            watchService.close();
+        }
+        write();
+    }
+
+    void write() {
+        if ( snapshotDirectory.isEmpty() ) {
+            return;
+        }
+        long start = System.nanoTime();
+        Path path = Paths.get( snapshotDirectory, instanceId + SUFFIX ).toAbsolutePath();
+        Path tmp = path.resolveSibling( instanceId + ".tmp" );
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( tmp ), 65536 ) )) {
+            Writer writer = new Writer( out, System.currentTimeMillis() );
+            issuerController.writeSnapshot( writer );
+            verifierController.writeSnapshot( writer );
+            writer.finish();
+        } catch( IOException ex ) {
+            lgr.log( Level.WARNING, "snapshot " + path + " could not be written", ex );
+            return;
+        }
+        try {
+            Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            lgr.info( "snapshot written to " + path + " in " + (System.nanoTime() - start) / 1_000_000 + " ms" );
+        } catch( IOException ex ) {
+            lgr.log( Level.WARNING, "snapshot " + path + " could not be written", ex );
+        }
+    }
+
+    // *********************************************************************************
+    // value codecs
+    // *********************************************************************************
+    static byte[] encodeString( String value ) {
+        return value.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    static String decodeString( byte[] bytes ) {
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    // the status is written by its value (byte length + value), not by its ordinal, so the enum can change
+    static byte[] encodeSession( SessionState session ) {
+        byte[] status = session.status().value().getBytes( StandardCharsets.UTF_8 );
+        byte[] data = session.data().getBytes( StandardCharsets.UTF_8 );
+        byte[] bytes = new byte[1 + status.length + data.length];
+        bytes[0] = (byte)status.length;
+        System.arraycopy( status, 0, bytes, 1, status.length );
+        System.arraycopy( data, 0, bytes, 1 + status.length, data.length );
+        return bytes;
+    }
+
+    /**
+     * @return the session, or null if its status is unknown to this version (the entry is dropped)
+     */
+    static SessionState decodeSession( byte[] bytes ) {
+        int length = bytes.length > 0 ? bytes[0] & 0xff : 0;
+        if ( bytes.length < 1 + length ) {
+            return null;
+        }
+        SessionStatus status = SessionStatus.of( new String( bytes, 1, length, StandardCharsets.UTF_8 ) );
+        if ( status == null ) {
+            return null;
+        }
+        return new SessionState( status, new String( bytes, 1 + length, bytes.length - 1 - length, StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * collects the sections of the snapshot, finish() writes the header and the sections
+     */
+    static class Writer {
+        private final DataOutputStream out;
+        private final long now;
+        private final List<byte[]> sections = new ArrayList<>();
+
+        Writer( DataOutputStream out, long now ) {
+            this.out = out;
+            this.now = now;
+        }
+
+        /**
+         * adds the live entries of a cache built with ExpireAfterWrite
+         * @param name name of the section
+         * @param cache
+         * @param keys filter for the keys to write
+         * @param encoder value encoder
+         */
+        <V> void section( String name, Cache<String, V> cache, Predicate<String> keys, Function<V, byte[]> encoder ) throws IOException {
+            Policy.VarExpiration<String, V> expiration = cache.policy().expireVariably().orElseThrow();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream section = new DataOutputStream( bytes );
+            int count = 0;
+            for ( Map.Entry<String, V> entry : cache.asMap().entrySet() ) {
+                Optional<Duration> expiresAfter = expiration.getExpiresAfter( entry.getKey() );
+                if ( !keys.test( entry.getKey() ) || expiresAfter.isEmpty() ) {
+                    continue;
+                }
+                section.writeLong( now + expiresAfter.get().toMillis() );
+                writeBytes( section, entry.getKey().getBytes( StandardCharsets.UTF_8 ) );
+                writeBytes( section, encoder.apply( entry.getValue() ) );
+                count++;
+            }
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream sectionHeader = new DataOutputStream( header );
+            writeBytes( sectionHeader, name.getBytes( StandardCharsets.UTF_8 ) );
+            sectionHeader.writeInt( count );
+            sections.add( header.toByteArray() );
+            sections.add( bytes.toByteArray() );
+        }
+
+        void finish() throws IOException {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( now );
+            out.writeInt( sections.size() / 2 );
+            for ( byte[] section : sections ) {
+                out.write( section );
+            }
+        }
+
+        private static void writeBytes( DataOutputStream out, byte[] bytes ) throws IOException {
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    /**
+     * reads the sections of a (memory mapped) snapshot by name
+     */
+    static class Reader {
+        private final ByteBuffer buffer;
+        private final long now;
+        private final Map<String, Integer> sections = new HashMap<>();
+        int restored;
+        // latest expiry of all entries
+        long lastExpiry;
+
+        Reader( ByteBuffer buffer, long now ) throws IOException {
+            this.buffer = buffer;
+            this.now = now;
+            if ( buffer.getInt() != MAGIC || buffer.getInt() != VERSION ) {
+                throw new IOException( "unsupported snapshot format" );
+            }
+            buffer.getLong(); // written at
+            int sectionCount = buffer.getInt();
+            for ( int i = 0; i < sectionCount; i++ ) {
+                String name = new String( readBytes(), StandardCharsets.UTF_8 );
+                sections.put( name, buffer.position() );
+                int count = buffer.getInt();
+                for ( int n = 0; n < count; n++ ) {
+                    lastExpiry = Math.max( lastExpiry, buffer.getLong() );
+                    skipBytes();
+                    skipBytes();
+                }
+            }
+        }
+
+        /**
+         * puts the entries of a section which are not expired into a cache built with ExpireAfterWrite, unless the
+         * cache has an entry with the same key already
+         * @param name name of the section
+         * @param cache
+         * @param decoder value decoder, entries it returns null for are dropped
+         */
+        <V> void section( String name, Cache<String, V> cache, Function<byte[], V> decoder ) {
+            Integer position = sections.get( name );
+            if ( position == null ) {
+                return;
+            }
+            Policy.VarExpiration<String, V> expiration = cache.policy().expireVariably().orElseThrow();
+            buffer.position( position );
+            int count = buffer.getInt();
+            for ( int n = 0; n < count; n++ ) {
+                long expiresAt = buffer.getLong();
+                if ( expiresAt <= now ) {
+                    skipBytes();
+                    skipBytes();
+                    continue;
+                }
+                String key = new String( readBytes(), StandardCharsets.UTF_8 );
+                V value = decoder.apply( readBytes() );
+                if ( value == null ) {
+                    continue;
+                }
+                if ( expiration.putIfAbsent( key, value, Duration.ofMillis( expiresAt - now ) ) == null ) {
+                    restored++;
+                }
+            }
+        }
+
+        private byte[] readBytes() {
+            byte[] bytes = new byte[length()];
+            buffer.get( bytes );
+            return bytes;
+        }
+
+        private void skipBytes() {
+            int length = length();
+            buffer.position( buffer.position() + length );
+        }
+
+        // reads a length and checks it against the rest of the snapshot, before anything is allocated or skipped
+        private int length() {
+            int length = buffer.getInt();
+            if ( length < 0 || length > buffer.remaining() ) {
+                throw new BufferUnderflowException();
+            }
+            return length;
+        }
+    }
+
+} // cls
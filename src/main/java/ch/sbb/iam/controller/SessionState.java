@@ -0,0 +1,78 @@
+package ch.sbb.iam.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+/**
+ * Session of an issuance / presentation request kept in the cache of the controller (id == correlationId)
+ * @param status current status of the session
+ * @param data session data returned to the UI polling for the status (json)
+ * @param claimed status a callback is currently being processed for, null if none (not written to snapshots)
+ */
+record SessionState( SessionStatus status, String data, SessionStatus claimed ) {
+
+    SessionState( SessionStatus status, String data ) {
+        this( status, data, null );
+    }
+
+    /**
+     * claims the transition to the next status before the callback is processed, so concurrent duplicates of the
+     * callback are rejected before they do the expensive work (parsing, receipt verification, B2C claims).
+     * The claim ends with transition or release.
+     * @param sessions session cache
+     * @param id correlationId of the session
+     * @param next status of the callback
+     * @return true if the caller may process the callback, false if the session is unknown, already has the same or
+     *         a later status, or a callback for the same or a later status is being processed
+     */
+    static boolean claim( Cache<String, SessionState> sessions, String id, SessionStatus next ) {
+        boolean[] claimed = { false };
+        sessions.asMap().computeIfPresent( id, (key, current) -> {
+            if ( !current.status().canTransitionTo( next ) || (current.claimed() != null && !current.claimed().canTransitionTo( next )) ) {
+                return current;
+            }
+            claimed[0] = true;
+            return new SessionState( current.status(), current.data(), next );
+        } );
+        return claimed[0];
+    }
+
+    /**
+     * ends the claim for the next status if it wasn't ended by the transition (e.g. the processing failed), so a
+     * retry of the callback can be processed. Does nothing if the claim is no longer held.
+     */
+    static void release( Cache<String, SessionState> sessions, String id, SessionStatus next ) {
+        sessions.asMap().computeIfPresent( id, (key, current) ->
+            current.claimed() == next ? new SessionState( current.status(), current.data() ) : current );
+    }
+
+    /**
+     * atomically moves the session to the next status, if that status follows the current one
+     * @param sessions session cache
+     * @param id correlationId of the session
+     * @param next new status
+     * @param data session data of the new status
+     * @return true if the session was updated, false if the session is unknown or the transition is stale / a duplicate
+     */
+    static boolean transition( Cache<String, SessionState> sessions, String id, SessionStatus next, String data ) {
+        return transition( sessions, id, next, data, () -> {} );
+    }
+
+    /**
+     * atomically moves the session to the next status, if that status follows the current one and no callback for
+     * a later status has been claimed meanwhile
+     * @param onTransition runs only if the transition is accepted, before the new status is visible
+     *                     (must not access the session cache)
+     * @return true if the session was updated, false if the session is unknown or the transition is stale / a duplicate
+     */
+    static boolean transition( Cache<String, SessionState> sessions, String id, SessionStatus next, String data, Runnable onTransition ) {
+        SessionState updated = new SessionState( next, data );
+        return sessions.asMap().computeIfPresent( id, (key, current) -> {
+            if ( !current.status().canTransitionTo( next ) || (current.claimed() != null && next.canTransitionTo( current.claimed() )) ) {
+                return current;
+            }
+            onTransition.run();
+            return updated;
+        } ) == updated;
+    }
+
+} // cls
@@ -0,0 +1,46 @@
+package ch.sbb.iam.controller;
+
+/**
+ * Status of an issuance / presentation session. A session only moves forward: request_created -> request_retrieved
+ * -> one of the final states. Late, retried or duplicate callbacks of the VC Request API are therefore ignored.
+ */
+enum SessionStatus {
+    REQUEST_CREATED( "request_created", 0 ),
+    REQUEST_RETRIEVED( "request_retrieved", 1 ),
+    ISSUANCE_SUCCESSFUL( "issuance_successful", 2 ),
+    ISSUANCE_ERROR( "issuance_error", 2 ),
+    PRESENTATION_VERIFIED( "presentation_verified", 2 );
+
+    private final String value;
+    private final int rank;
+
+    SessionStatus( String value, int rank ) {
+        this.value = value;
+        this.rank = rank;
+    }
+
+    /**
+     * @return requestStatus value as used by the VC Request API and the UI
+     */
+    String value() {
+        return value;
+    }
+
+    boolean canTransitionTo( SessionStatus next ) {
+        return next.rank > rank;
+    }
+
+    /**
+     * @param requestStatus requestStatus value of a callback
+     * @return the status, null if the value is unknown
+     */
+    static SessionStatus of( String requestStatus ) {
+        for ( SessionStatus status : values() ) {
+            if ( status.value.equals( requestStatus ) ) {
+                return status;
+            }
+        }
+        return null;
+    }
+
+} // cls
@@ -0,0 +1,115 @@
+package ch.sbb.iam.controller;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import ch.sbb.iam.did.ReceiptVerifier;
+import ch.sbb.iam.qr.QrCodeRenderer;
+
+/**
+ * Warm-up phase at startup. Spring Boot reports the readiness state ACCEPTING_TRAFFIC only after all
+ * ApplicationRunners are done, so /actuator/health/readiness stays down until the access tokens, the manifest,
+ * the upstream connections, the payload / callback code paths of both controllers, the receipt verification and the
+ * QR code renderer are warm.
+ * A failing step is logged and does not prevent the application from becoming ready, neither does a warm-up that
+ * takes longer than aadvc_WarmUpTimeoutInSeconds.
+ */
+@Component
+public class StartupWarmUp implements ApplicationRunner {
+    private static final Logger lgr = Logger.getLogger(StartupWarmUp.class.getName());
+
+    private final IssuerController issuerController;
+    private final VerifierController verifierController;
+    private final ReceiptVerifier receiptVerifier;
+    private final QrCodeRenderer qrCodeRenderer;
+
+    @Value("${aadvc_WarmUp:true}")
+    private boolean warmUp;
+
+    @Value("${aadvc_ApiEndpoint}")
+    private String apiEndpoint;
+
+    @Value("${aadvc_WarmUpTimeoutInSeconds:30}")
+    private int timeoutInSeconds;
+
+    public StartupWarmUp( IssuerController issuerController, VerifierController verifierController
+                        , ReceiptVerifier receiptVerifier, QrCodeRenderer qrCodeRenderer ) {
+        this.issuerController = issuerController;
+        this.verifierController = verifierController;
+        this.receiptVerifier = receiptVerifier;
+        this.qrCodeRenderer = qrCodeRenderer;
+    }
+
+    @Override
+    public void run( ApplicationArguments args ) {
+        if ( !warmUp ) {
+            lgr.info( "warm-up disabled" );
+            return;
+        }
+        long start = System.currentTimeMillis();
+        // the steps run in their own (daemon) thread, so a hanging token or manifest endpoint can't keep the
+        // application from becoming ready. Steps still running after the timeout go on in the background.
+        CompletableFuture<Void> steps = CompletableFuture.runAsync( this::runSteps, runnable -> {
+            Thread thread = new Thread( runnable, "warm-up" );
+            thread.setDaemon( true );
+            thread.start();
+        } );
+        try {
+            steps.get( timeoutInSeconds, TimeUnit.SECONDS );
+            lgr.info( "warm-up done in " + (System.currentTimeMillis() - start) + " ms" );
+        } catch( TimeoutException ex ) {
+            lgr.warning( "warm-up not done after " + timeoutInSeconds + " s, continuing in the background" );
+        } catch( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+        } catch( ExecutionException ex ) {
+            lgr.log( Level.WARNING, "warm-up failed", ex.getCause() );
+        }
+    }
+
+    private void runSteps() {
+        openConnection( apiEndpoint.replace("http://", "https://" ) );
+        try {
+            issuerController.warmUp();
+        } catch( Exception ex ) {
+            lgr.log( Level.WARNING, "warm-up of issuer failed", ex );
+        }
+        try {
+            verifierController.warmUp();
+        } catch( Exception ex ) {
+            lgr.log( Level.WARNING, "warm-up of verifier failed", ex );
+        }
+        try {
+            receiptVerifier.warmUp();
+        } catch( Exception ex ) {
+            lgr.log( Level.WARNING, "warm-up of receipt verification failed", ex );
+        }
+        try {
+            qrCodeRenderer.warmUp();
+        } catch( Exception ex ) {
+            lgr.log( Level.WARNING, "warm-up of QR code renderer failed", ex );
+        }
+    }
+
+    /**
+     * opens a (pooled) connection to the VC Request API, so TLS setup is done before the first request.
+     * The status of the response is not relevant.
+     */
+    private void openConnection( String url ) {
+        try {
+            WebClient.create().get()
+                     .uri( url )
+                     .exchangeToMono( response -> response.releaseBody() )
+                     .block( Duration.ofSeconds( timeoutInSeconds ) );
+        } catch( Exception ex ) {
+            lgr.log( Level.WARNING, "warm-up: could not connect to " + url, ex );
+        }
+    }
+
+} // cls
@@ -1,7 +1,9 @@
 package ch.sbb.iam.controller;
 
 import jakarta.servlet.http.HttpServletRequest;
+import java.time.Duration;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 import java.util.logging.*;
 import java.util.concurrent.*;
 import java.util.stream.*;
@@ -10,6 +12,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.PrivateKey;
 import java.security.cert.CertificateFactory;
@@ -18,9 +21,13 @@ import java.security.spec.PKCS8EncodedKeySpec;
 
 import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.node.*;
+import com.nimbusds.jwt.JWTClaimsSet;
 
 import org.springframework.http.*;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.beans.factory.annotation.*;
@@ -28,6 +35,11 @@ import org.springframework.cache.annotation.*;
 import com.github.benmanes.caffeine.cache.*;
 import com.microsoft.aad.msal4j.*;
 
+import ch.sbb.iam.controller.ExecutionLanes.Lane;
+import ch.sbb.iam.did.ReceiptVerifier;
+import ch.sbb.iam.qr.QrCodeRenderer;
+import ch.sbb.iam.template.RequestTemplateRegistry;
+
 @RestController
 @EnableCaching
 public class VerifierController {
@@ -38,6 +50,18 @@ public class VerifierController {
                                             .maximumSize(100)
                                             .build();
 
+    // presentation sessions (id == correlationId)
+    private final Cache<String, SessionState> sessions;
+
+    // request URL (openid-vc://...) of the presentation sessions, rendered as QR code by /api/verifier/qrcode
+    private final Cache<String, String> requestUrls;
+
+    // requestStatus values of the callbacks handled by this controller
+    private static final Set<SessionStatus> callbackStatuses = EnumSet.of( SessionStatus.REQUEST_RETRIEVED, SessionStatus.PRESENTATION_VERIFIED );
+
+    // B2C claims of verified presentations, built once in the callback and ready to be sent (id == correlationId)
+    private final Cache<String, byte[]> b2cClaimsCache;
+
     // *********************************************************************************
     // application properties - from envvars
     // *********************************************************************************
@@ -71,35 +95,38 @@ public class VerifierController {
     @Value("${aadvc_CredentialManifest}")
     private String credentialManifest;
 
-    private static final String presentationRequest = """
-        {
-          "includeQRCode": false,
-          "callback": {
-            "url": "https://YOURPUBLICREACHABLEHOSTNAME/api/verifier/presentationCallback",
-            "state": "STATEWILLBESETINCODE",
-            "headers": {
-              "api-key": "OPTIONAL API-KEY for VERIFIER CALLBACK API"
-            }
-          },
-          "authority": "did:ion: THIS IS YOUR DID FROM THE VC PAGE IN AZURE PORTAL WHICH IS SET IN THE run.cmd/sh OR docker-run.cmd/sh files",
-          "registration": {
-            "clientName": "Community Verifier",
-            "purpose": "So we can see that you are a Snoopfish community member"
-        },
-          "includeReceipt": false,
-          "requestedCredentials": [
-            {
-              "type": "SnoopfishCommunityMember",
-              "acceptedIssuers": [ "Snoopfish Community Member VC" ]
-            }
-          ],
-          "configuration": {
-            "validation": {
-              "allowRevoked": true,
-              "validateLinkedDomain": true
-            }
-          }
-        }""";
+    @Autowired
+    private RequestTemplateRegistry requestTemplates;
+
+    @Autowired
+    private ExecutionLanes lanes;
+
+    @Autowired
+    private ReceiptVerifier receiptVerifier;
+
+    @Autowired
+    private QrCodeRenderer qrCodeRenderer;
+
+    // looks for unknown sessions in the snapshots written by other instances (set by SessionSnapshot)
+    private volatile BooleanSupplier sessionRestorer = () -> false;
+
+    /**
+     * @param sessionCacheSize max. number of in-flight sessions kept in memory
+     */
+    public VerifierController( @Value("${aadvc_SessionCacheSize:100}") long sessionCacheSize ) {
+        sessions = Caffeine.newBuilder()
+                           .expireAfter(new ExpireAfterWrite<>(Duration.ofMinutes(15)))
+                           .maximumSize(sessionCacheSize)
+                           .build();
+        requestUrls = Caffeine.newBuilder()
+                              .expireAfter(new ExpireAfterWrite<>(Duration.ofMinutes(15)))
+                              .maximumSize(sessionCacheSize)
+                              .build();
+        b2cClaimsCache = Caffeine.newBuilder()
+                                 .expireAfter(new ExpireAfterWrite<>(Duration.ofMinutes(15)))
+                                 .maximumSize(sessionCacheSize)
+                                 .build();
+    }
 
     // *********************************************************************************
     // helpers
@@ -119,25 +146,7 @@ public class VerifierController {
         lgr.info( method + " " + requestURL );
     }
 
-    private String base64Decode( String base64String ) {
-        if ( (base64String.length()%4) > 0  ) {
-            base64String += "====".substring((base64String.length()%4));
-        }
-        return new String(Base64.getUrlDecoder().decode(base64String), StandardCharsets.UTF_8);
-    } 
-    
-    private static String readFileAllText(String filePath) 
-    {
-        StringBuilder contentBuilder = new StringBuilder();
-        try (Stream<String> stream = Files.lines( Paths.get(filePath), StandardCharsets.UTF_8)) {
-            stream.forEach(s -> contentBuilder.append(s).append("\n"));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return contentBuilder.toString();
-    }
-    
-    private String callVCClientAPI( String payload ) {
+    private String getAccessToken() {
         String accessToken = "";
         try {
             accessToken = cache.getIfPresent( "MSALAccessToken" );
@@ -150,6 +159,19 @@ public class VerifierController {
             ex.printStackTrace();
             return null;
         }
+        return accessToken;
+    }
+
+    /**
+     * calls the VC Request API. The response body is not read here, it is streamed to the client by the caller
+     * @param payload request payload
+     * @return response with status and headers, null if no access token could be acquired
+     */
+    private ResponseEntity<Flux<DataBuffer>> callVCClientAPI( String payload ) {
+        String accessToken = getAccessToken();
+        if ( accessToken == null ) {
+            return null;
+        }
         String endpoint = apiEndpoint.replace("http://", "https://" ) + "verifiableCredentials/createPresentationRequest";
         lgr.info( "callVCClientAPI: " + endpoint + "\n" + payload );
         WebClient client = WebClient.create();
@@ -160,9 +182,13 @@ public class VerifierController {
                                                     .accept(MediaType.APPLICATION_JSON)
                                                     .body(BodyInserters.fromObject(payload))
                                                     .retrieve();
-        String responseBody = responseSpec.bodyToMono(String.class).block();    
-        lgr.info( responseBody );
-        return responseBody;
+        ResponseEntity<Flux<DataBuffer>> response = responseSpec.toEntityFlux(DataBuffer.class).block();
+        lgr.info( "callVCClientAPI: " + response.getStatusCode() );
+        return response;
+    }
+
+    private static ResponseEntity<StreamingResponseBody> textResponse( HttpStatus status, String message ) {
+        return ResponseEntity.status(status).body( out -> out.write( message.getBytes(StandardCharsets.UTF_8) ) );
     }
 
     private String getMSALAccessToken() throws Exception {
@@ -200,60 +226,223 @@ public class VerifierController {
         return result.accessToken();
     }    
 
+    /**
+     * builds the presentation request payload for the VC Request API from the request template of the credential type
+     * @param credentialType credential type of the template, null for the default type
+     * @param callback url the VC Request API calls back to
+     * @param correlationId state value of the request
+     * @return presentation request payload, null if the credential type is unknown
+     */
+    private JsonNode buildPresentationPayload( String credentialType, String callback, String correlationId ) {
+        JsonNode rootNode = requestTemplates.presentationRequest( credentialType );
+        if ( rootNode == null ) {
+            return null;
+        }
+        // modify the callback method to make it easier to debug 
+        // with tools like ngrok since the URI changes all the time
+        // this way you don't need to modify the callback URL in the payload every time
+        // ngrok changes the URI
+        ((ObjectNode)rootNode).put("authority", verifierAuthority );
+        // the QR code is rendered by /api/verifier/qrcode
+        ((ObjectNode)rootNode).put("includeQRCode", false );
+        ((ObjectNode)(rootNode.path("callback"))).put("url", callback );
+        ((ObjectNode)(rootNode.path("callback"))).put("state", correlationId );
+        // set our api-key so we check that callbacks are legitimate
+        ((ObjectNode)(rootNode.path("callback").path("headers"))).put("api-key", apiKey );
+        // copy the issuerDID from the settings and fill in the acceptedIssuer part of the payload
+        // this means only that issuer should be trusted for the requested credentialtype
+        // this value is an array in the payload, you can trust multiple issuers for the same credentialtype
+        // very common to accept the test VCs and the Production VCs coming from different verifiable credential services
+        // TODO ChE: fix -> does not work...
+        ((ArrayNode)(rootNode.path("requestedCredentials").get(0).path("acceptedIssuers"))).set( 0, new TextNode( issuerAuthority ) );
+        return rootNode;
+    }
+
     /**
      * This method is called from the UI to initiate the presentation of the verifiable credential
      * @param request
      * @param headers
+     * @param type credential type to request, the default type if missing
      * @return JSON object with the address to the presentation request and optionally a QR code and a state value which can be used to check on the response status
      */
     @CrossOrigin(origins = "*") // needed for B2C
     @GetMapping("/api/verifier/presentation-request")
-    public ResponseEntity<String> presentationRequest( HttpServletRequest request, @RequestHeader HttpHeaders headers ) {
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> presentationRequest( HttpServletRequest request, @RequestHeader HttpHeaders headers
+                                                                        , @RequestParam(required = false) String type ) {
         traceHttpRequest( request );
-        String jsonRequest = presentationRequest;
         String callback = getBasePath( request ) + "api/verifier/presentation-request-callback";
+        return lanes.submit( Lane.REQUEST, () -> createPresentationRequest( callback, type ) );
+    }
+
+    private ResponseEntity<StreamingResponseBody> createPresentationRequest( String callback, String type ) {
         String correlationId = java.util.UUID.randomUUID().toString();
         ObjectMapper objectMapper = new ObjectMapper();
-        String responseBody = "";
+        ResponseEntity<Flux<DataBuffer>> apiResponse = null;
         try {
             ObjectNode data = objectMapper.createObjectNode();
             data.put("status", "request_created" );
             data.put("message", "Waiting for QR code to be scanned" );
-            cache.put( correlationId, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data) );
-
-            JsonNode rootNode = objectMapper.readTree( jsonRequest );
-            // modify the callback method to make it easier to debug 
-            // with tools like ngrok since the URI changes all the time
-            // this way you don't need to modify the callback URL in the payload every time
-            // ngrok changes the URI
-            ((ObjectNode)rootNode).put("authority", verifierAuthority );
-            ((ObjectNode)(rootNode.path("callback"))).put("url", callback );
-            ((ObjectNode)(rootNode.path("callback"))).put("state", correlationId );
-            // set our api-key so we check that callbacks are legitimate
-            ((ObjectNode)(rootNode.path("callback").path("headers"))).put("api-key", apiKey );
-            // copy the issuerDID from the settings and fill in the acceptedIssuer part of the payload
-            // this means only that issuer should be trusted for the requested credentialtype
-            // this value is an array in the payload, you can trust multiple issuers for the same credentialtype
-            // very common to accept the test VCs and the Production VCs coming from different verifiable credential services
-            // TODO ChE: fix -> does not work...
-            ((ArrayNode)(rootNode.path("requestedCredentials").get(0).path("acceptedIssuers"))).set( 0, new TextNode( issuerAuthority ) );
+            sessions.put( correlationId, new SessionState( SessionStatus.REQUEST_CREATED, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data) ) );
+
+            JsonNode rootNode = buildPresentationPayload( type, callback, correlationId );
+            if ( rootNode == null ) {
+                sessions.invalidate( correlationId );
+                return textResponse( HttpStatus.BAD_REQUEST, "Unknown credential type" );
+            }
             String payload = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(rootNode);
-            responseBody = callVCClientAPI( payload );
-            JsonNode apiResponse = objectMapper.readTree( responseBody );
-            ((ObjectNode)apiResponse).put( "id", correlationId );
-            responseBody = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(apiResponse);
+            apiResponse = callVCClientAPI( payload );
         } catch (java.io.IOException ex) {
             ex.printStackTrace();
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Technical error" );
+            return textResponse( HttpStatus.BAD_REQUEST, "Technical error" );
+        }
+        if ( apiResponse == null ) {
+            return textResponse( HttpStatus.BAD_REQUEST, "Technical error" );
         }
         // the response from the VC Request API call is returned to the caller (the UI). It contains the URI to the request which Authenticator can download after
-        // it has scanned the QR code. If the payload requested the VC Request service to create the QR code that is returned as well
-        // the javascript in the UI will use that QR code to display it on the screen to the user.            
+        // it has scanned the QR code. The UI displays the QR code rendered by /api/verifier/qrcode from that URI.
+        // The response is streamed to the UI, the id is added on the fly
+        JsonObjectSplicer splicer = new JsonObjectSplicer( Map.of( "id", correlationId ), 8192 );
+        Flux<DataBuffer> apiResponseBody = apiResponse.getBody();
         HttpHeaders responseHeaders = new HttpHeaders();
         responseHeaders.set("Content-Type", "application/json");    
         return ResponseEntity.ok()
           .headers(responseHeaders)
-          .body( responseBody );
+          .body( out -> {
+              splicer.transfer( apiResponseBody, out );
+              rememberRequestUrl( correlationId, splicer.captured() );
+          } );
+    }
+
+    /**
+     * keeps the request URL of the VC Request API response for the QR code of the session
+     * @param captured response of the VC Request API, null if it was too large to keep
+     */
+    private void rememberRequestUrl( String correlationId, byte[] captured ) {
+        if ( captured == null ) {
+            lgr.warning( "no request URL for QR code of " + correlationId );
+            return;
+        }
+        try {
+            String url = JsonObjectSplicer.stringField( captured, "url" );
+            if ( url != null && !url.isEmpty() ) {
+                requestUrls.put( correlationId, url );
+            }
+        } catch (java.io.IOException ex) {
+            lgr.warning( "no request URL for QR code of " + correlationId + ": " + ex.getMessage() );
+        }
+    }
+
+    /**
+     * This method is called from the UI to display the QR code of the presentation request
+     * @param request
+     * @param id the correlation id returned by presentation-request
+     * @param format svg (default) or png
+     * @return the QR code of the request URL
+     */
+    @GetMapping("/api/verifier/qrcode")
+    public CompletableFuture<ResponseEntity<byte[]>> presentationQrCode( HttpServletRequest request
+                                                                      , @RequestParam String id
+                                                                      , @RequestParam(required = false) String format ) {
+        traceHttpRequest( request );
+        return lanes.submit( Lane.STATUS, () -> renderQrCode( id, format ) );
+    }
+
+    private ResponseEntity<byte[]> renderQrCode( String id, String formatName ) {
+        QrCodeRenderer.Format format = QrCodeRenderer.Format.of( formatName );
+        if ( format == null ) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType( MediaType.TEXT_PLAIN ).body( "Unknown format".getBytes( StandardCharsets.UTF_8 ) );
+        }
+        String url = requestUrls.getIfPresent( id );
+        if ( url == null ) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType( MediaType.TEXT_PLAIN ).body( "Unknown id".getBytes( StandardCharsets.UTF_8 ) );
+        }
+        try {
+            return ResponseEntity.ok()
+              .contentType( format.mediaType() )
+              .cacheControl( CacheControl.maxAge( Duration.ofMinutes(15) ).cachePrivate() )
+              .body( qrCodeRenderer.render( url, format ) );
+        } catch (java.io.IOException ex) {
+            ex.printStackTrace();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType( MediaType.TEXT_PLAIN ).body( "Technical error".getBytes( StandardCharsets.UTF_8 ) );
+        }
+    }
+
+    private static String epochSeconds( Date date ) {
+        return date == null ? "" : String.valueOf( date.getTime() / 1000 );
+    }
+
+    /**
+     * maps a callback from the VC Request API to the session data shown to the UI
+     * @param objectMapper
+     * @param presentationResponse callback json payload
+     * @return session data or null if the requestStatus is not supported
+     */
+    private ObjectNode parsePresentationCallback( ObjectMapper objectMapper, JsonNode presentationResponse ) throws IOException {
+        String requestStatus = presentationResponse.path("requestStatus").asText();
+        ObjectNode data = null;
+        // there are 2 different callbacks. 1 if the QR code is scanned (or deeplink has been followed)
+        // Scanning the QR code makes Authenticator download the specific request from the server
+        // the request will be deleted from the server immediately.
+        // That's why it is so important to capture this callback and relay this to the UI so the UI can hide
+        // the QR code to prevent the user from scanning it twice (resulting in an error since the request is already deleted)            
+        if ( requestStatus.equals( "request_retrieved" ) ) {
+            data = objectMapper.createObjectNode();
+            data.put("message", "QR Code is scanned. Waiting for validation..." );
+        }
+        // the 2nd callback is the result with the verified credential being verified.
+        // typically here is where the business logic is written to determine what to do with the result
+        // the response in this callback contains the claims from the Verifiable Credential(s) being presented by the user
+        // In this case the result is put in the in memory cache which is used by the UI when polling for the state so the UI can be updated.
+        if ( requestStatus.equals( "presentation_verified") ) {
+            data = objectMapper.createObjectNode();
+            data.put("message", "Presentation received" );
+            data.set("payload", presentationResponse.path("verifiedCredentialsData") ); 
+            data.put("subject", presentationResponse.path("subject").asText() );
+            data.put("firstName", presentationResponse.path("verifiedCredentialsData").get(0).path("claims").path("firstName").asText() );
+            data.put("lastName", presentationResponse.path("verifiedCredentialsData").get(0).path("claims").path("lastName").asText() );
+            data.set("presentationResponse", presentationResponse );
+            // jti, iat and exp of the receipt are only passed on if the signatures of the presentation
+            // and the credential are valid, so they can be used for access decisions
+            if ( presentationResponse.has("receipt") ) {
+                try {
+                    String credentialType = lastType( presentationResponse.path("verifiedCredentialsData").path(0).path("type") );
+                    JWTClaimsSet vcToken = receiptVerifier.verify( presentationResponse.path("receipt").path("vpTkn").asText(), acceptedIssuers( credentialType ) );
+                    data.put( "jti", vcToken.getJWTID() );
+                    data.put( "iat", epochSeconds( vcToken.getIssueTime() ) );
+                    data.put( "exp", epochSeconds( vcToken.getExpirationTime() ) );
+                    data.put( "receiptVerified", true );
+                } catch( GeneralSecurityException ex ) {
+                    lgr.warning( "receipt not verified: " + ex.getMessage() );
+                    data.put( "receiptVerified", false );
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @param credentialType credential type, null for the default type
+     * @return the issuers accepted in the presentation request for the credential type
+     */
+    private Set<String> acceptedIssuers( String credentialType ) {
+        Set<String> acceptedIssuers = new HashSet<>();
+        acceptedIssuers.add( issuerAuthority );
+        JsonNode rootNode = requestTemplates.presentationRequest( credentialType );
+        if ( rootNode != null ) {
+            // the first accepted issuer of the template is replaced by issuerAuthority, see buildPresentationPayload
+            JsonNode templateIssuers = rootNode.path("requestedCredentials").get(0).path("acceptedIssuers");
+            for ( int i = 1; i < templateIssuers.size(); i++ ) {
+                acceptedIssuers.add( templateIssuers.get(i).asText() );
+            }
+        }
+        return acceptedIssuers;
+    }
+
+    /**
+     * @return the most specific type of a verifiable credential (the last one), null if there is none
+     */
+    private static String lastType( JsonNode types ) {
+        return types.isArray() && !types.isEmpty() ? types.get( types.size() - 1 ).asText() : null;
     }
 
     /**
@@ -264,65 +453,58 @@ public class VerifierController {
      * @return
      */
     @RequestMapping(value = "/api/verifier/presentation-request-callback", method = RequestMethod.POST, produces = "application/json", consumes = "application/json")
-    public ResponseEntity<String> presentationRequestCallback( HttpServletRequest request
-                                                             , @RequestHeader HttpHeaders headers
-                                                             , @RequestBody String body ) {
+    public CompletableFuture<ResponseEntity<String>> presentationRequestCallback( HttpServletRequest request
+                                                                                , @RequestHeader HttpHeaders headers
+                                                                                , @RequestBody String body ) {
         traceHttpRequest( request );
         lgr.info( body );
+        String apiKeyHeader = request.getHeader("api-key");
+        return lanes.submit( Lane.CALLBACK, () -> handlePresentationCallback( apiKeyHeader, body ) );
+    }
+
+    private ResponseEntity<String> handlePresentationCallback( String apiKeyHeader, String body ) {
         ObjectMapper objectMapper = new ObjectMapper();
         try {
             // we need to get back our api-key in the header to make sure we don't accept unsolicited calls
-            if ( !request.getHeader("api-key").equals(apiKey) ) {
+            if ( !apiKey.equals(apiKeyHeader) ) {
                 lgr.info( "api-key wrong or missing" );
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body( "api-key wrong or missing" );
             }
             JsonNode presentationResponse = objectMapper.readTree( body );
             String requestStatus = presentationResponse.path("requestStatus").asText();
-            ObjectNode data = null;
-            // there are 2 different callbacks. 1 if the QR code is scanned (or deeplink has been followed)
-            // Scanning the QR code makes Authenticator download the specific request from the server
-            // the request will be deleted from the server immediately.
-            // That's why it is so important to capture this callback and relay this to the UI so the UI can hide
-            // the QR code to prevent the user from scanning it twice (resulting in an error since the request is already deleted)            
-            if ( requestStatus.equals( "request_retrieved" ) ) {
-                data = objectMapper.createObjectNode();
-                data.put("message", "QR Code is scanned. Waiting for validation..." );
+            SessionStatus nextStatus = SessionStatus.of( requestStatus );
+            if ( nextStatus == null || !callbackStatuses.contains( nextStatus ) ) {
+                lgr.info( "Unsupported requestStatus" );
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unsupported requestStatus" );
             }
-            // the 2nd callback is the result with the verified credential being verified.
-            // typically here is where the business logic is written to determine what to do with the result
-            // the response in this callback contains the claims from the Verifiable Credential(s) being presented by the user
-            // In this case the result is put in the in memory cache which is used by the UI when polling for the state so the UI can be updated.
-            if ( requestStatus.equals( "presentation_verified") ) {
-                data = objectMapper.createObjectNode();
-                data.put("message", "Presentation received" );
-                data.set("payload", presentationResponse.path("verifiedCredentialsData") ); 
-                data.put("subject", presentationResponse.path("subject").asText() );
-                data.put("firstName", presentationResponse.path("verifiedCredentialsData").get(0).path("claims").path("firstName").asText() );
-                data.put("lastName", presentationResponse.path("verifiedCredentialsData").get(0).path("claims").path("lastName").asText() );
-                data.set("presentationResponse", presentationResponse );
-                if ( presentationResponse.has("receipt") ) {
-                    String vpTkn = base64Decode( presentationResponse.path("receipt").path("vpTkn").asText().split("\\.")[1] );
-                    JsonNode vpToken = objectMapper.readTree( vpTkn );
-                    String vc = base64Decode( vpToken.path("vp").path("verifiableCredential").get(0).asText().split("\\.")[1] );
-                    JsonNode vcToken = objectMapper.readTree( vc );  
-                    data.put( "jti", vcToken.path("jti").asText() );
-                    data.put( "iat", vcToken.path("iat").asText() );
-                    data.put( "exp", vcToken.path("exp").asText() );
-                }
+            String id = presentationResponse.path("state").asText(); // id == correlationId
+            SessionState session = session( id );
+            if ( session == null ) {
+                lgr.info( "Unknown state: " + id );
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unknown state" );
             }
-            if ( data != null ) {
-                String id = presentationResponse.path("state").asText();
-                String dataChk = cache.getIfPresent( id ); // id == correlationId
-                if ( dataChk == null ) {
-                    lgr.info( "Unknown state: " + id );
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unknown state" );
-                } else {
-                    data.put("status", requestStatus );
-                    cache.put( id, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data) );
+            // callbacks can arrive late, be retried or duplicated. They are acknowledged but don't change the session
+            // if it already has the same or a later status, so a late request_retrieved can't overwrite the result.
+            // The transition is claimed first, so concurrent duplicates are rejected before the expensive work
+            if ( !SessionState.claim( sessions, id, nextStatus ) ) {
+                lgr.info( "Ignoring " + requestStatus + " for " + id + " in status " + session.status().value() + ", or already in progress" );
+                return ResponseEntity.ok().body( "{}" );
+            }
+            try {
+                ObjectNode data = parsePresentationCallback( objectMapper, presentationResponse );
+                data.put("status", requestStatus );
+                // the B2C claims are published with the transition (only if it is accepted), so they are ready
+                // before the UI can see the presentation_verified status
+                Runnable publishB2CClaims = () -> {};
+                if ( nextStatus == SessionStatus.PRESENTATION_VERIFIED ) {
+                    byte[] b2cClaims = buildB2CClaims( objectMapper, presentationResponse );
+                    publishB2CClaims = () -> b2cClaimsCache.put( id, b2cClaims );
                 }
-            } else {
-                lgr.info( "Unsupported requestStatus" );
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unsupported requestStatus" );
+                if ( !SessionState.transition( sessions, id, nextStatus, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data), publishB2CClaims ) ) {
+                    lgr.info( "Ignoring " + requestStatus + " for " + id + ", session changed concurrently or expired" );
+                }
+            } finally {
+                SessionState.release( sessions, id, nextStatus );
             }
         } catch (java.io.IOException ex) {
             ex.printStackTrace();
@@ -343,12 +525,17 @@ public class VerifierController {
      */
     @CrossOrigin(origins = "*") // needed for B2C
     @GetMapping("/api/verifier/presentation-response")
-    public ResponseEntity<String> presentationResponseStatus( HttpServletRequest request
-                                                            , @RequestHeader HttpHeaders headers
-                                                            , @RequestParam String id ) {
+    public CompletableFuture<ResponseEntity<String>> presentationResponseStatus( HttpServletRequest request
+                                                                               , @RequestHeader HttpHeaders headers
+                                                                               , @RequestParam String id ) {
         traceHttpRequest( request );
+        return lanes.submit( Lane.STATUS, () -> readPresentationStatus( id ) );
+    }
+
+    private ResponseEntity<String> readPresentationStatus( String id ) {
         String responseBody = "";
-        String data = cache.getIfPresent( id ); // id == correlationId
+        SessionState session = session( id ); // id == correlationId
+        String data = session == null ? null : session.data();
         if ( !(data == null || data.isEmpty()) ) {
             ObjectMapper objectMapper = new ObjectMapper();
             try {
@@ -361,6 +548,7 @@ public class VerifierController {
                 statusResponse.put("jti", cacheData.path("jti").asText() );
                 statusResponse.put("iat", cacheData.path("iat").asText() );
                 statusResponse.put("exp", cacheData.path("exp").asText() );
+                statusResponse.put("receiptVerified", cacheData.path("receiptVerified").asBoolean() );
                 responseBody = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(statusResponse);
             } catch (java.io.IOException ex) {
                 ex.printStackTrace();
@@ -381,62 +569,82 @@ public class VerifierController {
      * @return a JSON structure with claims from the VC presented
      */
     @RequestMapping(value = "/api/verifier/presentation-response-b2c", method = RequestMethod.POST, produces = "application/json", consumes = "application/json")
-    public ResponseEntity<String> presentationResponseB2C( HttpServletRequest request
-                                                             , @RequestHeader HttpHeaders headers
-                                                             , @RequestBody String body ) {
+    public CompletableFuture<ResponseEntity<byte[]>> presentationResponseB2C( HttpServletRequest request
+                                                                                , @RequestHeader HttpHeaders headers
+                                                                                , @RequestBody String body ) {
         traceHttpRequest( request );
         lgr.info( body );
-        String responseBody = "";
+        return lanes.submit( Lane.STATUS, () -> readB2CClaims( body ) );
+    }
+
+    private ResponseEntity<byte[]> readB2CClaims( String body ) {
+        byte[] responseBody = null;
         try {
             ObjectMapper objectMapper = new ObjectMapper();
             JsonNode b2cRequest = objectMapper.readTree( body );
             String id = b2cRequest.path("id").asText();
-            String data = cache.getIfPresent( id ); 
-            if ( (data == null || data.isEmpty()) ) {
-                return ResponseEntity.status(HttpStatus.CONFLICT).body( formatB2CError( "Verifiable Credentials not presented" ) );
-            } 
-            JsonNode cacheData = objectMapper.readTree( data  );
-            String didSubject = cacheData.path("presentationResponse").path("subject").asText();
-            // vcKey is the shorthand did but with the colon chars replaced with a period.
-            // Reason for this is if you want to store it as a way to signin, you need to add it
-            // to the identities collection on the userProfile, the issuerAssignedId does not allow the colon char
-            String vcKey = didSubject.replace("did:ion:", "did.ion.").split(":")[0];
-            // The type collection always 2..n entries where [0] is the generic base type 'VerifiableCredentials'.
-            // We take the last type to pass back for simplicity
-            String credentialType = "";
-            for (JsonNode arrayElement : cacheData.path("presentationResponse").path("verifiedCredentialsData").get(0).path("type")) {
-                credentialType = arrayElement.asText();
+            responseBody = b2cClaimsCache.getIfPresent( id );
+            if ( responseBody == null ) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body( formatB2CError( "Verifiable Credentials not presented" ).getBytes(StandardCharsets.UTF_8) );
             }
-            // get the claims from the VC and add a few extra claims that we pass back to B2C
-            JsonNode vcClaims = cacheData.path("presentationResponse").path("verifiedCredentialsData").get(0).path("claims");
-            ((ObjectNode)vcClaims).put("vcType", credentialType);
-            ((ObjectNode)vcClaims).put("vcIss", cacheData.path("presentationResponse").path("subject").asText() );
-            ((ObjectNode)vcClaims).put("vcSub", didSubject);
-            ((ObjectNode)vcClaims).put("vcKey", vcKey );
-            responseBody = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(vcClaims);
         } catch (java.io.IOException ex) {
             ex.printStackTrace();
-            return ResponseEntity.status(HttpStatus.CONFLICT).body( formatB2CError( "Technical error" ) );
-        }     
+            return ResponseEntity.status(HttpStatus.CONFLICT).body( formatB2CError( "Technical error" ).getBytes(StandardCharsets.UTF_8) );
+        }
         HttpHeaders responseHeaders = new HttpHeaders();
-        responseHeaders.set("Content-Type", "application/json");    
+        responseHeaders.set("Content-Type", "application/json");
         return ResponseEntity.ok()
           .headers(responseHeaders)
           .body( responseBody );
     }
 
+    /**
+     * builds the claims returned to B2C from a verified presentation
+     * @param objectMapper
+     * @param presentationResponse presentation_verified callback json payload
+     * @return the claims from the VC plus vcType, vcIss, vcSub and vcKey as JSON
+     */
+    private byte[] buildB2CClaims( ObjectMapper objectMapper, JsonNode presentationResponse ) throws IOException {
+        String didSubject = presentationResponse.path("subject").asText();
+        // vcKey is the shorthand did but with the colon chars replaced with a period.
+        // Reason for this is if you want to store it as a way to signin, you need to add it
+        // to the identities collection on the userProfile, the issuerAssignedId does not allow the colon char
+        String vcKey = didSubject.replace("did:ion:", "did.ion.").split(":")[0];
+        // The type collection always 2..n entries where [0] is the generic base type 'VerifiableCredentials'.
+        // We take the last type to pass back for simplicity
+        String credentialType = "";
+        for (JsonNode arrayElement : presentationResponse.path("verifiedCredentialsData").get(0).path("type")) {
+            credentialType = arrayElement.asText();
+        }
+        // get the claims from the VC and add a few extra claims that we pass back to B2C
+        ObjectNode vcClaims = presentationResponse.path("verifiedCredentialsData").get(0).path("claims").deepCopy();
+        vcClaims.put("vcType", credentialType);
+        vcClaims.put("vcIss", presentationResponse.path("subject").asText() );
+        vcClaims.put("vcSub", didSubject);
+        vcClaims.put("vcKey", vcKey );
+        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(vcClaims);
+    }
+
     private String formatB2CError( String message ) {
         return "{\"version\": \"1.0.0\", \"status\": 400, \"userMessage\": \"{0}}\"}".replace( "{0}", message );
     }
 
     @GetMapping("/api/verifier/get-presentation-details")
-    public ResponseEntity<String> getPresentationDetals( HttpServletRequest request
-                                            , @RequestHeader HttpHeaders headers ) {
+    public CompletableFuture<ResponseEntity<String>> getPresentationDetals( HttpServletRequest request
+                                                               , @RequestHeader HttpHeaders headers
+                                                               , @RequestParam(required = false) String type ) {
         traceHttpRequest( request );
+        return lanes.submit( Lane.STATUS, () -> readPresentationDetails( type ) );
+    }
+
+    private ResponseEntity<String> readPresentationDetails( String type ) {
         String responseBody = "";
         try {
             ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode rootNode = objectMapper.readTree( presentationRequest );
+            JsonNode rootNode = requestTemplates.presentationRequest( type );
+            if ( rootNode == null ) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body( "Unknown credential type" );
+            }
             ObjectNode data = objectMapper.createObjectNode();
             data.put("clientName", rootNode.path("registration").path("clientName").asText() );
             data.put("purpose", rootNode.path("registration").path("purpose").asText() );
@@ -455,4 +663,69 @@ public class VerifierController {
           .body( responseBody );
     }
 
+    /**
+     * @return the session, null if it is neither known to this instance nor in a new snapshot of another instance
+     */
+    private SessionState session( String id ) {
+        SessionState session = sessions.getIfPresent( id );
+        if ( session == null && sessionRestorer.getAsBoolean() ) {
+            session = sessions.getIfPresent( id );
+        }
+        return session;
+    }
+
+    void setSessionRestorer( BooleanSupplier sessionRestorer ) {
+        this.sessionRestorer = sessionRestorer;
+    }
+
+    /**
+     * adds the in-flight sessions, their request URLs and the prepared B2C claims to the snapshot written at shutdown
+     */
+    void writeSnapshot( SessionSnapshot.Writer writer ) throws IOException {
+        writer.section( "verifier.sessions", sessions, key -> true, SessionSnapshot::encodeSession );
+        writer.section( "verifier.requestUrls", requestUrls, key -> true, SessionSnapshot::encodeString );
+        writer.section( "verifier.b2cClaims", b2cClaimsCache, key -> true, bytes -> bytes );
+    }
+
+    void restoreSnapshot( SessionSnapshot.Reader reader ) {
+        reader.section( "verifier.sessions", sessions, SessionSnapshot::decodeSession );
+        reader.section( "verifier.requestUrls", requestUrls, SessionSnapshot::decodeString );
+        reader.section( "verifier.b2cClaims", b2cClaimsCache, bytes -> bytes );
+    }
+
+    /**
+     * warm-up at startup: acquires the access token and runs the payload building and callback parsing
+     * code paths against synthetic data, so the first presentation request does not pay for it.
+     * The receipt verification is warmed up by ReceiptVerifier.warmUp
+     */
+    void warmUp() throws IOException {
+        if ( getAccessToken() == null ) {
+            lgr.warning( "warm-up: no access token acquired" );
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        String correlationId = "warmup-" + java.util.UUID.randomUUID().toString();
+        for ( String credentialType : requestTemplates.presentationTypes() ) {
+            JsonNode rootNode = buildPresentationPayload( credentialType, "https://localhost/api/verifier/presentation-request-callback", correlationId );
+            objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(rootNode);
+        }
+        for ( String requestStatus : List.of( "request_retrieved", "presentation_verified" ) ) {
+            ObjectNode presentationResponse = objectMapper.createObjectNode();
+            presentationResponse.put("requestId", correlationId );
+            presentationResponse.put("requestStatus", requestStatus );
+            presentationResponse.put("state", correlationId );
+            presentationResponse.put("subject", "did:ion:warm-up" );
+            ObjectNode vcData = presentationResponse.putArray("verifiedCredentialsData").addObject();
+            vcData.put("issuer", issuerAuthority );
+            vcData.putArray("type").add( "VerifiableCredential" ).add( "SnoopfishCommunityMember" );
+            vcData.putObject("claims").put("firstName", "warm" ).put("lastName", "up" );
+            JsonNode callbackBody = objectMapper.readTree( presentationResponse.toString() );
+            ObjectNode data = parsePresentationCallback( objectMapper, callbackBody );
+            data.put("status", requestStatus );
+            objectMapper.readTree( objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data) );
+            if ( requestStatus.equals( "presentation_verified" ) ) {
+                buildB2CClaims( objectMapper, callbackBody );
+            }
+        }
+    }
+
 } // cls
\ No newline at end of file
@@ -0,0 +1,136 @@
+package ch.sbb.iam.did;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.time.Duration;
+import java.util.logging.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.nimbusds.jose.*;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.*;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.stereotype.Component;
+import com.github.benmanes.caffeine.cache.*;
+
+/**
+ * Public keys of DIDs, resolved with the DidResolver. The verifier for a key id (did#fragment) is created once and
+ * cached, so verifying a signature doesn't need a DID resolution or key parsing as long as the key is cached.
+ * Concurrent requests for the same key id resolve it once. Failures are cached for a short time, so an unknown or
+ * unreachable DID doesn't block every callback presenting it for the resolver timeout.
+ */
+@Component
+public class DidKeyStore {
+    private static final Logger lgr = Logger.getLogger(DidKeyStore.class.getName());
+
+    // secp256k1 is not supported by the JDK (since 16)
+    static final Provider bouncyCastle = new BouncyCastleProvider();
+
+    // verifier of a key id or the reason why there is none
+    private record Resolution( JWSVerifier verifier, GeneralSecurityException failure ) {}
+
+    private final DidResolver didResolver;
+    private final Cache<String, Resolution> verifiers;
+
+    /**
+     * @param didResolver
+     * @param expiresInSeconds lifetime of a resolved key
+     * @param failureExpiresInSeconds lifetime of a failed resolution
+     */
+    public DidKeyStore( DidResolver didResolver
+                      , @Value("${aadvc_DidKeyCacheExpiresInSeconds:3600}") long expiresInSeconds
+                      , @Value("${aadvc_DidKeyFailureCacheExpiresInSeconds:30}") long failureExpiresInSeconds ) {
+        this.didResolver = didResolver;
+        long expiresInNanos = Duration.ofSeconds(expiresInSeconds).toNanos();
+        long failureExpiresInNanos = Duration.ofSeconds(failureExpiresInSeconds).toNanos();
+        this.verifiers = Caffeine.newBuilder()
+                                 .expireAfter(new Expiry<String, Resolution>() {
+                                     @Override
+                                     public long expireAfterCreate( String kid, Resolution resolution, long currentTime ) {
+                                         return resolution.failure() == null ? expiresInNanos : failureExpiresInNanos;
+                                     }
+                                     @Override
+                                     public long expireAfterUpdate( String kid, Resolution resolution, long currentTime, long currentDuration ) {
+                                         return expireAfterCreate( kid, resolution, currentTime );
+                                     }
+                                     @Override
+                                     public long expireAfterRead( String kid, Resolution resolution, long currentTime, long currentDuration ) {
+                                         return currentDuration;
+                                     }
+                                 })
+                                 .maximumSize(1000)
+                                 .build();
+    }
+
+    /**
+     * @param kid key id of a JWS header, did#fragment
+     * @return verifier for the key
+     * @throws GeneralSecurityException if the key can't be found or is not supported
+     */
+    public JWSVerifier verifier( String kid ) throws GeneralSecurityException {
+        Resolution resolution = verifiers.get( kid, key -> {
+            try {
+                return new Resolution( createVerifier( key ), null );
+            } catch( GeneralSecurityException ex ) {
+                lgr.warning( ex.getMessage() );
+                return new Resolution( null, ex );
+            }
+        } );
+        if ( resolution.failure() != null ) {
+            throw new GeneralSecurityException( resolution.failure().getMessage(), resolution.failure() );
+        }
+        return resolution.verifier();
+    }
+
+    private JWSVerifier createVerifier( String kid ) throws GeneralSecurityException {
+        int hash = kid.indexOf('#');
+        if ( hash <= 0 ) {
+            throw new GeneralSecurityException( "kid is not a DID URL: " + kid );
+        }
+        String did = kid.substring( 0, hash );
+        String fragment = kid.substring( hash );
+        JsonNode didDocument;
+        try {
+            didDocument = didResolver.resolve( did );
+        } catch( IOException ex ) {
+            throw new GeneralSecurityException( "DID " + did + " could not be resolved", ex );
+        }
+        if ( didDocument == null ) {
+            throw new GeneralSecurityException( "unknown DID " + did );
+        }
+        // resolver services wrap the document in the resolution result
+        if ( didDocument.has("didDocument") ) {
+            didDocument = didDocument.path("didDocument");
+        }
+        for ( JsonNode method : didDocument.path("verificationMethod") ) {
+            String id = method.path("id").asText();
+            if ( (id.equals( kid ) || id.equals( fragment )) && method.has("publicKeyJwk") ) {
+                lgr.info( "key " + kid + " resolved" );
+                return createVerifier( kid, method.path("publicKeyJwk").toString() );
+            }
+        }
+        throw new GeneralSecurityException( "key " + kid + " not found in DID document" );
+    }
+
+    private static JWSVerifier createVerifier( String kid, String publicKeyJwk ) throws GeneralSecurityException {
+        try {
+            JWK jwk = JWK.parse( publicKeyJwk );
+            if ( jwk instanceof ECKey ecKey ) {
+                ECDSAVerifier verifier = new ECDSAVerifier( ecKey.toECPublicKey( bouncyCastle ) );
+                verifier.getJCAContext().setProvider( bouncyCastle );
+                return verifier;
+            }
+            if ( jwk instanceof RSAKey rsaKey ) {
+                return new RSASSAVerifier( rsaKey );
+            }
+        } catch( java.text.ParseException | JOSEException ex ) {
+            throw new GeneralSecurityException( "key " + kid + " could not be parsed", ex );
+        }
+        throw new GeneralSecurityException( "key type of " + kid + " not supported" );
+    }
+
+} // cls
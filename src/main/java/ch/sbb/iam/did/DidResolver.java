@@ -0,0 +1,18 @@
+package ch.sbb.iam.did;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Resolves a DID to its DID document
+ */
+public interface DidResolver {
+
+    /**
+     * @param did e.g. did:web:example.com or did:ion:EiB...
+     * @return the DID document, null if the DID is unknown
+     */
+    JsonNode resolve( String did ) throws IOException;
+
+} // cls
@@ -0,0 +1,26 @@
+package ch.sbb.iam.did;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.context.annotation.*;
+
+@Configuration
+public class DidResolverConfig {
+
+    /**
+     * DID resolver used to verify the receipts of presentations. DID documents from aadvc_DidDocuments (directory)
+     * if set, the resolver service aadvc_DidResolverUrl otherwise
+     */
+    @Bean
+    public DidResolver didResolver( @Value("${aadvc_DidDocuments:}") String didDocuments
+                                  , @Value("${aadvc_DidResolverUrl}") String didResolverUrl
+                                  , @Value("${aadvc_DidResolverTimeoutInMillis:2000}") long didResolverTimeoutInMillis ) {
+        if ( !didDocuments.isEmpty() ) {
+            return new FileDidResolver( Paths.get( didDocuments ).toAbsolutePath().normalize() );
+        }
+        return new HttpDidResolver( didResolverUrl, Duration.ofMillis( didResolverTimeoutInMillis ) );
+    }
+
+} // cls
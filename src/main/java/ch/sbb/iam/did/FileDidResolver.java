@@ -0,0 +1,33 @@
+package ch.sbb.iam.did;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.logging.*;
+
+import com.fasterxml.jackson.databind.*;
+
+/**
+ * Resolves DIDs from DID documents stored as files in a directory, used for tests and offline setups.
+ * The file name is the DID with ':' replaced by '_' and the extension .json, e.g. did_web_example.com.json
+ */
+public class FileDidResolver implements DidResolver {
+    private static final Logger lgr = Logger.getLogger(FileDidResolver.class.getName());
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path directory;
+
+    public FileDidResolver( Path directory ) {
+        this.directory = directory;
+    }
+
+    @Override
+    public JsonNode resolve( String did ) throws IOException {
+        Path file = directory.resolve( did.replace( ':', '_' ) + ".json" ).normalize();
+        if ( !file.startsWith( directory ) || !Files.isRegularFile( file ) ) {
+            lgr.info( "no DID document for " + did + " in " + directory );
+            return null;
+        }
+        return objectMapper.readTree( file.toFile() );
+    }
+
+} // cls
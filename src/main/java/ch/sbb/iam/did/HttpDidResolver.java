@@ -0,0 +1,50 @@
+package ch.sbb.iam.did;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.logging.*;
+
+import com.fasterxml.jackson.databind.*;
+
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * Resolves DIDs with a DID resolver service (e.g. https://discover.did.msidentity.com/v1.0/identifiers/)
+ */
+public class HttpDidResolver implements DidResolver {
+    private static final Logger lgr = Logger.getLogger(HttpDidResolver.class.getName());
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String resolverUrl;
+    private final Duration timeout;
+
+    /**
+     * @param resolverUrl
+     * @param timeout max. time to resolve a DID, the resolution runs in the callback lane
+     */
+    public HttpDidResolver( String resolverUrl, Duration timeout ) {
+        this.resolverUrl = resolverUrl.endsWith("/") ? resolverUrl : resolverUrl + "/";
+        this.timeout = timeout;
+    }
+
+    @Override
+    public JsonNode resolve( String did ) throws IOException {
+        lgr.info( "resolve " + did );
+        try {
+            String responseBody = WebClient.create().get()
+                                           .uri( resolverUrl + did )
+                                           .accept(MediaType.APPLICATION_JSON)
+                                           .retrieve()
+                                           .bodyToMono(String.class)
+                                           .block( timeout );
+            return responseBody == null ? null : objectMapper.readTree( responseBody );
+        } catch( WebClientResponseException.NotFound ex ) {
+            return null;
+        } catch( RuntimeException ex ) {
+            throw new IOException( "DID " + did + " could not be resolved", ex );
+        }
+    }
+
+} // cls
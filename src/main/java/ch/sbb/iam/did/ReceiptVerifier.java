@@ -0,0 +1,140 @@
+package ch.sbb.iam.did;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.text.ParseException;
+import java.util.*;
+
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.nimbusds.jose.*;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jwt.*;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.stereotype.Component;
+
+/**
+ * Verifies the receipt of a presentation (includeReceipt): the signature of the verifiable presentation (vpTkn) by the
+ * holder and the signature of the verifiable credential it contains by the issuer. The keys come from the DidKeyStore.
+ * A valid signature alone proves nothing, any DID can sign a credential: the credential must be issued by an accepted
+ * issuer to the holder who presents it, and the presentation must be made for this verifier.
+ */
+@Component
+public class ReceiptVerifier {
+
+    // tolerated clock difference to the wallet and the issuer for exp and nbf
+    private static final long CLOCK_SKEW_MILLIS = 60_000;
+
+    private final DidKeyStore keyStore;
+    private final String verifierAuthority;
+
+    public ReceiptVerifier( DidKeyStore keyStore, @Value("${aadvc_VerifierAuthority}") String verifierAuthority ) {
+        this.keyStore = keyStore;
+        this.verifierAuthority = verifierAuthority;
+    }
+
+    /**
+     * @param vpTkn vpTkn of the receipt
+     * @param acceptedIssuers DIDs of the issuers accepted for the credential
+     * @return claims of the first verifiable credential of the presentation
+     * @throws GeneralSecurityException if a token can't be parsed, is expired or not yet valid or its signature is
+     *         not valid, if the credential is not issued by an accepted issuer to the holder of the presentation or
+     *         if the presentation is not made for the verifier authority
+     */
+    public JWTClaimsSet verify( String vpTkn, Collection<String> acceptedIssuers ) throws GeneralSecurityException {
+        JWTClaimsSet vpClaims = verifyToken( vpTkn, "presentation" );
+        if ( vpClaims.getAudience() == null || !vpClaims.getAudience().contains( verifierAuthority ) ) {
+            throw new GeneralSecurityException( "presentation not made for " + verifierAuthority + " but " + vpClaims.getAudience() );
+        }
+        Map<String, Object> vp;
+        try {
+            vp = vpClaims.getJSONObjectClaim("vp");
+        } catch( ParseException ex ) {
+            throw new GeneralSecurityException( "presentation could not be parsed", ex );
+        }
+        if ( vp == null || !(vp.get("verifiableCredential") instanceof List<?> vcs) || vcs.isEmpty() ) {
+            throw new GeneralSecurityException( "presentation contains no verifiable credential" );
+        }
+        JWTClaimsSet vcClaims = verifyToken( String.valueOf( vcs.get(0) ), "credential" );
+        if ( !acceptedIssuers.contains( vcClaims.getIssuer() ) ) {
+            throw new GeneralSecurityException( "credential issuer " + vcClaims.getIssuer() + " not accepted" );
+        }
+        // holder binding: the credential must be presented by its subject
+        if ( !vpClaims.getIssuer().equals( vcClaims.getSubject() ) ) {
+            throw new GeneralSecurityException( "credential of " + vcClaims.getSubject() + " presented by " + vpClaims.getIssuer() );
+        }
+        return vcClaims;
+    }
+
+    private JWTClaimsSet verifyToken( String token, String what ) throws GeneralSecurityException {
+        try {
+            SignedJWT jwt = SignedJWT.parse( token );
+            String kid = jwt.getHeader().getKeyID();
+            if ( kid == null ) {
+                throw new GeneralSecurityException( what + " has no kid" );
+            }
+            if ( !jwt.verify( keyStore.verifier( kid ) ) ) {
+                throw new GeneralSecurityException( "signature of " + what + " not valid" );
+            }
+            JWTClaimsSet claims = jwt.getJWTClaimsSet();
+            // the token must be signed with a key of its issuer
+            if ( claims.getIssuer() == null || !kid.startsWith( claims.getIssuer() + "#" ) ) {
+                throw new GeneralSecurityException( what + " not signed by its issuer " + claims.getIssuer() );
+            }
+            long now = System.currentTimeMillis();
+            if ( claims.getExpirationTime() != null && claims.getExpirationTime().getTime() < now - CLOCK_SKEW_MILLIS ) {
+                throw new GeneralSecurityException( what + " expired" );
+            }
+            if ( claims.getNotBeforeTime() != null && claims.getNotBeforeTime().getTime() > now + CLOCK_SKEW_MILLIS ) {
+                throw new GeneralSecurityException( what + " not valid yet" );
+            }
+            return claims;
+        } catch( ParseException | JOSEException ex ) {
+            throw new GeneralSecurityException( what + " could not be verified", ex );
+        }
+    }
+
+    /**
+     * warm-up at startup: verifies a receipt signed with a locally generated secp256k1 key, so Nimbus, the
+     * BouncyCastle provider and the DID document parsing are loaded before the first presentation callback.
+     * The key store of this verifier is not used.
+     */
+    public void warmUp() throws GeneralSecurityException {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance( "EC", DidKeyStore.bouncyCastle );
+            generator.initialize( new ECGenParameterSpec( "secp256k1" ) );
+            KeyPair keyPair = generator.generateKeyPair();
+            String did = "did:web:warm-up";
+            ECKey key = new ECKey.Builder( Curve.SECP256K1, (ECPublicKey) keyPair.getPublic() ).build();
+            ObjectMapper objectMapper = new ObjectMapper();
+            ObjectNode didDocument = objectMapper.createObjectNode();
+            didDocument.put("id", did );
+            ObjectNode method = didDocument.putArray("verificationMethod").addObject();
+            method.put("id", "#key-1" );
+            method.set("publicKeyJwk", objectMapper.readTree( key.toJSONString() ) );
+
+            ECDSASigner signer = new ECDSASigner( keyPair.getPrivate(), Curve.SECP256K1 );
+            signer.getJCAContext().setProvider( DidKeyStore.bouncyCastle );
+            JWSHeader header = new JWSHeader.Builder( JWSAlgorithm.ES256K ).keyID( did + "#key-1" ).build();
+            Date now = new Date();
+            SignedJWT vc = new SignedJWT( header, new JWTClaimsSet.Builder().issuer( did ).subject( did ).jwtID( "urn:pic:warm-up" )
+                                                       .notBeforeTime( now ).build() );
+            vc.sign( signer );
+            SignedJWT vp = new SignedJWT( header, new JWTClaimsSet.Builder().issuer( did ).audience( did ).notBeforeTime( now )
+                                                       .claim( "vp", Map.of( "verifiableCredential", List.of( vc.serialize() ) ) ).build() );
+            vp.sign( signer );
+
+            new ReceiptVerifier( new DidKeyStore( resolvedDid -> didDocument, 60, 60 ), did ).verify( vp.serialize(), Set.of( did ) );
+        } catch( JOSEException | IOException ex ) {
+            throw new GeneralSecurityException( "warm-up receipt could not be created", ex );
+        }
+    }
+
+} // cls
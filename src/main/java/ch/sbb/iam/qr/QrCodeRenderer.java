@@ -0,0 +1,218 @@
+package ch.sbb.iam.qr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.*;
+import java.util.zip.*;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import com.github.benmanes.caffeine.cache.*;
+
+/**
+ * Renders QR codes (e.g. of the request URL of an issuance or presentation request) on the server, so the UI
+ * doesn't need a QR code library and the VC Request API doesn't need to send a base64 PNG.
+ * Rendered codes are cached, the cache is bounded by the size of the rendered codes in bytes.
+ * The PNG is written without AWT / ImageIO, which keeps the native image free of the AWT libraries.
+ */
+@Component
+public class QrCodeRenderer {
+    private static final Logger lgr = Logger.getLogger(QrCodeRenderer.class.getName());
+
+    // modules of white space around the code as required by the QR code spec
+    private static final int QUIET_ZONE = 4;
+
+    private static final byte[] PNG_SIGNATURE = { (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    public enum Format {
+        SVG( MediaType.valueOf("image/svg+xml") ),
+        PNG( MediaType.IMAGE_PNG );
+
+        private final MediaType mediaType;
+
+        Format( MediaType mediaType ) {
+            this.mediaType = mediaType;
+        }
+
+        public MediaType mediaType() {
+            return mediaType;
+        }
+
+        /**
+         * @return the format, SVG if the name is missing, null if it is unknown
+         */
+        public static Format of( String name ) {
+            if ( name == null || name.isEmpty() ) {
+                return SVG;
+            }
+            for ( Format format : values() ) {
+                if ( format.name().equalsIgnoreCase( name ) ) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private record Key( String content, Format format ) {}
+
+    private final Cache<Key, byte[]> rendered;
+
+    private final int moduleSize;
+
+    public QrCodeRenderer( @Value("${aadvc_QrCodeCacheSizeInBytes:1048576}") long cacheSizeInBytes
+                         , @Value("${aadvc_QrCodeModuleSize:4}") int moduleSize ) {
+        this.moduleSize = moduleSize;
+        this.rendered = Caffeine.newBuilder()
+                                .maximumWeight(cacheSizeInBytes)
+                                .weigher((Key key, byte[] image) -> key.content().length() + image.length)
+                                .build();
+    }
+
+    /**
+     * @param content text to encode, e.g. the request URL
+     * @return the rendered QR code
+     * @throws IOException if the content can't be encoded (too long)
+     */
+    public byte[] render( String content, Format format ) throws IOException {
+        try {
+            // concurrent requests for the same code render it once
+            return rendered.get( new Key( content, format ), key -> {
+                try {
+                    ByteMatrix matrix = encode( key.content() );
+                    return key.format() == Format.PNG ? renderPng( matrix ) : renderSvg( matrix );
+                } catch( IOException ex ) {
+                    throw new UncheckedIOException( ex );
+                }
+            } );
+        } catch( UncheckedIOException ex ) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * renders a synthetic request URL in all formats, without caching it, so the encoder and the PNG writer are
+     * loaded before the first request
+     */
+    public void warmUp() throws IOException {
+        ByteMatrix matrix = encode( "openid-vc://?request_uri=https://verifiedid.did.msidentity.com/v1.0/tenants/00000000-0000-0000-0000-000000000000/verifiableCredentials/presentationRequests/00000000-0000-0000-0000-000000000000" );
+        lgr.info( "warm-up: QR code " + renderSvg( matrix ).length + " bytes (svg), " + renderPng( matrix ).length + " bytes (png)" );
+    }
+
+    private static ByteMatrix encode( String content ) throws IOException {
+        try {
+            return Encoder.encode( content, ErrorCorrectionLevel.M ).getMatrix();
+        } catch( WriterException ex ) {
+            throw new IOException( "QR code could not be encoded", ex );
+        }
+    }
+
+    /**
+     * one stroked path with a horizontal line per run of dark modules, relative moves within a row,
+     * scaled by the client (viewBox)
+     */
+    private static byte[] renderSvg( ByteMatrix matrix ) {
+        int size = matrix.getWidth() + 2 * QUIET_ZONE;
+        StringBuilder sb = new StringBuilder( 4096 );
+        sb.append( "<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 " ).append( size ).append( ' ' ).append( size )
+          .append( "\" shape-rendering=\"crispEdges\"><rect width=\"100%\" height=\"100%\" fill=\"#fff\"/><path stroke=\"#000\" d=\"" );
+        for ( int y = 0; y < matrix.getHeight(); y++ ) {
+            int end = -1; // end of the previous run in this row
+            int x = 0;
+            while ( x < matrix.getWidth() ) {
+                if ( matrix.get( x, y ) != 1 ) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while ( x < matrix.getWidth() && matrix.get( x, y ) == 1 ) {
+                    x++;
+                }
+                if ( end < 0 ) {
+                    sb.append( 'M' ).append( start + QUIET_ZONE ).append( ' ' ).append( y + QUIET_ZONE ).append( ".5" );
+                } else {
+                    sb.append( 'm' ).append( start - end ).append( " 0" );
+                }
+                sb.append( 'h' ).append( x - start );
+                end = x;
+            }
+        }
+        sb.append( "\"/></svg>" );
+        return sb.toString().getBytes( StandardCharsets.US_ASCII );
+    }
+
+    /**
+     * 1 bit per pixel grayscale PNG with moduleSize pixels per module, written directly (signature, IHDR, one
+     * deflated IDAT, IEND)
+     */
+    private byte[] renderPng( ByteMatrix matrix ) throws IOException {
+        int size = (matrix.getWidth() + 2 * QUIET_ZONE) * moduleSize;
+        int rowBytes = (size + 7) / 8;
+        // per row filter type 0 followed by the pixels, 1 = white
+        byte[] white = new byte[rowBytes + 1];
+        for ( int x = 0; x < size; x++ ) {
+            white[1 + x / 8] |= (byte)(0x80 >>> (x % 8));
+        }
+        ByteArrayOutputStream pixels = new ByteArrayOutputStream( 1024 );
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream( pixels, new Deflater( Deflater.BEST_COMPRESSION ), 4096 )) {
+            for ( int y = 0; y < QUIET_ZONE * moduleSize; y++ ) {
+                deflated.write( white );
+            }
+            byte[] row = new byte[rowBytes + 1];
+            for ( int y = 0; y < matrix.getHeight(); y++ ) {
+                System.arraycopy( white, 0, row, 0, row.length );
+                for ( int x = 0; x < matrix.getWidth(); x++ ) {
+                    if ( matrix.get( x, y ) != 1 ) {
+                        continue;
+                    }
+                    for ( int px = (x + QUIET_ZONE) * moduleSize; px < (x + QUIET_ZONE + 1) * moduleSize; px++ ) {
+                        row[1 + px / 8] &= (byte)~(0x80 >>> (px % 8));
+                    }
+                }
+                for ( int dy = 0; dy < moduleSize; dy++ ) {
+                    deflated.write( row );
+                }
+            }
+            for ( int y = 0; y < QUIET_ZONE * moduleSize; y++ ) {
+                deflated.write( white );
+            }
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream( pixels.size() + 64 );
+        DataOutputStream out = new DataOutputStream( png );
+        out.write( PNG_SIGNATURE );
+        ByteArrayOutputStream header = new ByteArrayOutputStream( 13 );
+        DataOutputStream ihdr = new DataOutputStream( header );
+        ihdr.writeInt( size );
+        ihdr.writeInt( size );
+        ihdr.writeByte( 1 ); // bit depth
+        ihdr.writeByte( 0 ); // grayscale
+        ihdr.writeByte( 0 ); // deflate
+        ihdr.writeByte( 0 ); // adaptive filtering
+        ihdr.writeByte( 0 ); // no interlace
+        writeChunk( out, "IHDR", header.toByteArray() );
+        writeChunk( out, "IDAT", pixels.toByteArray() );
+        writeChunk( out, "IEND", new byte[0] );
+        return png.toByteArray();
+    }
+
+    private static void writeChunk( DataOutputStream out, String type, byte[] data ) throws IOException {
+        byte[] typeBytes = type.getBytes( StandardCharsets.US_ASCII );
+        CRC32 crc = new CRC32();
+        crc.update( typeBytes );
+        crc.update( data );
+        out.writeInt( data.length );
+        out.write( typeBytes );
+        out.write( data );
+        out.writeInt( (int)crc.getValue() );
+    }
+
+} // cls
@@ -0,0 +1,298 @@
+package ch.sbb.iam.template;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.*;
+import java.util.stream.*;
+
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Issuance and presentation request templates keyed by credential type.
+ * The built-in templates (classpath:requests) are overridden / extended by the json files configured in
+ * aadvc_IssuanceFile and aadvc_PresentationFile (a single file or a directory, not set by default). The files are
+ * parsed and validated once and reloaded when they change, so request handling never touches the filesystem.
+ * A file which can't be loaded on reload (e.g. because it is only partly written) keeps its last valid template.
+ */
+@Component
+public class RequestTemplateRegistry {
+    private static final Logger lgr = Logger.getLogger(RequestTemplateRegistry.class.getName());
+
+    private enum Kind { ISSUANCE, PRESENTATION }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // immutable snapshots, replaced as a whole on reload
+    private volatile Map<String, ObjectNode> issuanceTemplates = Map.of();
+    private volatile Map<String, ObjectNode> presentationTemplates = Map.of();
+
+    private WatchService watchService;
+    private Thread watchThread;
+    // directory watched per kind: the template directory, the directory of the template file or, as long as the
+    // configured location doesn't exist, its nearest existing parent
+    private final Map<Kind, Path> watchedDirectories = new EnumMap<>( Kind.class );
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    // last valid template of each file per kind, kept if a new version of the file is invalid
+    private final Map<Kind, Map<Path, ObjectNode>> fileTemplates = new EnumMap<>( Kind.class );
+
+    @Value("${aadvc_IssuanceFile:}")
+    private String issuanceFile;
+
+    @Value("${aadvc_PresentationFile:}")
+    private String presentationFile;
+
+    @Value("${aadvc_DefaultCredentialType:SnoopfishCommunityMember}")
+    private String defaultCredentialType;
+
+    /**
+     * @param credentialType credential type, null for the default type
+     * @return a copy of the issuance request template which can be modified, null if the type is unknown
+     */
+    public ObjectNode issuanceRequest( String credentialType ) {
+        ObjectNode template = issuanceTemplates.get( credentialType == null ? defaultCredentialType : credentialType );
+        return template == null ? null : template.deepCopy();
+    }
+
+    /**
+     * @param credentialType credential type, null for the default type
+     * @return a copy of the presentation request template which can be modified, null if the type is unknown
+     */
+    public ObjectNode presentationRequest( String credentialType ) {
+        ObjectNode template = presentationTemplates.get( credentialType == null ? defaultCredentialType : credentialType );
+        return template == null ? null : template.deepCopy();
+    }
+
+    public Set<String> issuanceTypes() {
+        return issuanceTemplates.keySet();
+    }
+
+    public Set<String> presentationTypes() {
+        return presentationTemplates.keySet();
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        reload( Kind.ISSUANCE );
+        reload( Kind.PRESENTATION );
+        if ( location( Kind.ISSUANCE ).isEmpty() && location( Kind.PRESENTATION ).isEmpty() ) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        for ( Kind kind : Kind.values() ) {
+            if ( !location( kind ).isEmpty() ) {
+                updateWatch( kind );
+            }
+        }
+        watchThread = new Thread( this::watch, "request-template-watcher" );
+        watchThread.setDaemon( true );
+        watchThread.start();
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if ( watchThread != null ) {
+            watchThread.interrupt();
+        }
+        if ( watchService != null ) {
+            watchService.close();
+        }
+    }
+
+    private void watch() {
+        while ( !Thread.currentThread().isInterrupted() ) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch( InterruptedException | ClosedWatchServiceException ex ) {
+                return;
+            }
+            Path dir = (Path)key.watchable();
+            List<Path> changed = new ArrayList<>();
+            for ( WatchEvent<?> event : key.pollEvents() ) {
+                if ( event.context() instanceof Path name ) {
+                    changed.add( dir.resolve( name ) );
+                }
+            }
+            boolean valid = key.reset();
+            changed( dir, changed, valid );
+        }
+    }
+
+    private synchronized void changed( Path dir, List<Path> changed, boolean valid ) {
+        for ( Kind kind : Kind.values() ) {
+            if ( !dir.equals( watchedDirectories.get( kind ) ) ) {
+                continue;
+            }
+            Path location = locationPath( kind );
+            // the template directory itself, the template file or a directory on the way to the location
+            if ( !valid || dir.equals( location ) || changed.stream().anyMatch( location::startsWith ) ) {
+                updateWatch( kind );
+                reload( kind );
+            }
+        }
+    }
+
+    /**
+     * registers the directory to watch for the templates of a kind. As long as the configured location doesn't
+     * exist (e.g. a volume mounted later) its nearest existing parent is watched, so the templates are loaded once
+     * the location is created.
+     */
+    private synchronized void updateWatch( Kind kind ) {
+        Path location = locationPath( kind );
+        Path dir = Files.isDirectory( location ) ? location : location.getParent();
+        while ( dir != null && !Files.isDirectory( dir ) ) {
+            dir = dir.getParent();
+        }
+        Path previous = watchedDirectories.get( kind );
+        if ( dir == null || dir.equals( previous ) ) {
+            return;
+        }
+        try {
+            if ( !watchKeys.containsKey( dir ) ) {
+                watchKeys.put( dir, dir.register( watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE ) );
+            }
+        } catch (IOException ex) {
+            lgr.log( Level.WARNING, "request templates in " + location + " are not reloaded, " + dir + " can't be watched", ex );
+            return;
+        }
+        watchedDirectories.put( kind, dir );
+        if ( previous != null && !watchedDirectories.containsValue( previous ) ) {
+            watchKeys.remove( previous ).cancel();
+        }
+        if ( Files.exists( location ) ) {
+            lgr.info( "watching " + kind + " request templates in " + dir );
+        } else {
+            lgr.warning( kind + " request templates " + location + " don't exist, watching " + dir + " until they are created" );
+        }
+    }
+
+    /**
+     * loads all templates of a kind and replaces the current ones. The built-in template is always available unless
+     * it is overridden by a file for the same credential type. A file which can't be loaded keeps its last valid
+     * template, a file which never was valid is skipped.
+     */
+    private synchronized void reload( Kind kind ) {
+        Map<String, ObjectNode> templates = new LinkedHashMap<>();
+        String builtIn = kind == Kind.ISSUANCE ? "requests/issuance-request.json" : "requests/presentation-request.json";
+        try (InputStream is = new ClassPathResource( builtIn ).getInputStream()) {
+            add( kind, templates, load( kind, builtIn, objectMapper.readTree( is ) ) );
+        } catch (IOException ex) {
+            lgr.log( Level.SEVERE, "built-in request template " + builtIn + " could not be loaded", ex );
+        }
+        Map<Path, ObjectNode> previous = fileTemplates.getOrDefault( kind, Map.of() );
+        Map<Path, ObjectNode> loaded = new HashMap<>();
+        for ( Path file : templateFiles( location( kind ) ) ) {
+            ObjectNode template = null;
+            try {
+                template = load( kind, file.toString(), objectMapper.readTree( Files.readAllBytes( file ) ) );
+            } catch (IOException ex) {
+                lgr.log( Level.SEVERE, "request template " + file + " could not be loaded", ex );
+            }
+            if ( template == null && previous.containsKey( file ) ) {
+                lgr.warning( "keeping the last valid version of request template " + file );
+                template = previous.get( file );
+            }
+            if ( template != null ) {
+                loaded.put( file, template );
+                add( kind, templates, template );
+            }
+        }
+        fileTemplates.put( kind, loaded );
+        if ( kind == Kind.ISSUANCE ) {
+            issuanceTemplates = Collections.unmodifiableMap( templates );
+        } else {
+            presentationTemplates = Collections.unmodifiableMap( templates );
+        }
+        lgr.info( kind + " request templates loaded: " + templates.keySet() );
+    }
+
+    /**
+     * @return the template, null if it is invalid
+     */
+    private static ObjectNode load( Kind kind, String source, JsonNode rootNode ) {
+        String error = validate( kind, rootNode );
+        if ( error != null ) {
+            lgr.severe( "request template " + source + " is invalid: " + error );
+            return null;
+        }
+        return (ObjectNode)rootNode;
+    }
+
+    private static void add( Kind kind, Map<String, ObjectNode> templates, ObjectNode template ) {
+        if ( template == null ) {
+            return;
+        }
+        String credentialType = kind == Kind.ISSUANCE ? template.path("type").asText()
+                                                      : template.path("requestedCredentials").get(0).path("type").asText();
+        templates.put( credentialType, template );
+    }
+
+    /**
+     * @return description of the problem or null if the template can be used by the controllers
+     */
+    private static String validate( Kind kind, JsonNode rootNode ) {
+        if ( !rootNode.isObject() ) {
+            return "not a json object";
+        }
+        if ( !rootNode.path("callback").path("headers").isObject() ) {
+            return "callback.headers missing";
+        }
+        if ( !rootNode.path("registration").isObject() ) {
+            return "registration missing";
+        }
+        if ( kind == Kind.ISSUANCE ) {
+            if ( rootNode.path("type").asText().isEmpty() ) {
+                return "type missing";
+            }
+            if ( rootNode.has("pin") && !rootNode.path("pin").path("length").isInt() ) {
+                return "pin.length missing";
+            }
+        } else {
+            JsonNode requestedCredential = rootNode.path("requestedCredentials").path(0);
+            if ( requestedCredential.path("type").asText().isEmpty() ) {
+                return "requestedCredentials[0].type missing";
+            }
+            if ( !requestedCredential.path("acceptedIssuers").isArray() || requestedCredential.path("acceptedIssuers").isEmpty() ) {
+                return "requestedCredentials[0].acceptedIssuers missing";
+            }
+        }
+        return null;
+    }
+
+    private String location( Kind kind ) {
+        return kind == Kind.ISSUANCE ? issuanceFile : presentationFile;
+    }
+
+    private Path locationPath( Kind kind ) {
+        return Paths.get( location( kind ) ).toAbsolutePath().normalize();
+    }
+
+    private static List<Path> templateFiles( String location ) {
+        if ( location.isEmpty() ) {
+            return List.of();
+        }
+        Path path = Paths.get( location );
+        if ( Files.isRegularFile( path ) ) {
+            return List.of( path );
+        }
+        if ( Files.isDirectory( path ) ) {
+            try (Stream<Path> files = Files.list( path )) {
+                return files.filter( f -> f.toString().endsWith(".json") ).sorted().collect( Collectors.toList() );
+            } catch (IOException ex) {
+                lgr.log( Level.SEVERE, "request templates in " + location + " could not be listed", ex );
+            }
+        }
+        return List.of();
+    }
+
+} // cls
@@ -0,0 +1,62 @@
+package ch.sbb.iam;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.logging.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.*;
+
+/**
+ * The service runs scale-to-zero, the first badge scan after a cold start must not time out at the gate.
+ * Checks that the AOT processed application is started and has answered its first request within the cold-start
+ * budget (startupTargetSeconds, default 10). Runs with the aot profile only (mvn -Paot test), which processes the
+ * test contexts and sets spring.aot.enabled.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+    "aadvc_WarmUp=false",
+    "aadvc_TenantId=dummyTenant",
+    "aadvc_ClientId=dummyClient",
+    "aadvc_ClientSecret=dummySecret"
+})
+@EnabledIfSystemProperty(named = "spring.aot.enabled", matches = "true")
+class StartupTimeTest {
+    private static final Logger lgr = Logger.getLogger(StartupTimeTest.class.getName());
+
+    private static final Duration target = Duration.ofSeconds( Long.getLong( "startupTargetSeconds", 10 ) );
+
+    private static volatile Duration startupTime;
+
+    @TestConfiguration
+    static class StartupTimeListener {
+        @EventListener
+        void ready( ApplicationReadyEvent event ) {
+            startupTime = event.getTimeTaken();
+        }
+    }
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void answersFirstRequestWithinTarget() {
+        long start = System.nanoTime();
+        ResponseEntity<String> response = restTemplate.getForEntity( "/api/verifier/get-presentation-details", String.class );
+        Duration firstRequest = Duration.ofNanos( System.nanoTime() - start );
+
+        assertThat( response.getStatusCode() ).isEqualTo( HttpStatus.OK );
+        assertThat( startupTime ).isNotNull();
+        lgr.info( "startup " + startupTime.toMillis() + " ms, first request " + firstRequest.toMillis() + " ms" );
+        assertThat( startupTime.plus( firstRequest ) ).isLessThan( target );
+    }
+
+} // cls
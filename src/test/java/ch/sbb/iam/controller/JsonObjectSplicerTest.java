@@ -0,0 +1,156 @@
+package ch.sbb.iam.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+/**
+ * The splicer sees the upstream document in arbitrary buffers. The buffers are reference counted Netty buffers as
+ * with WebClient, every buffer created by the upstream must be released, whether the transfer succeeds or not.
+ */
+class JsonObjectSplicerTest {
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory( new UnpooledByteBufAllocator( false ) );
+    private final List<NettyDataBuffer> created = new ArrayList<>();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    @Test
+    void addsFieldsAfterBraceAtEndOfBuffer() throws IOException {
+        assertThat( transfer( Map.of( "id", "42" ), " {", "\"a\":1}" ) ).isEqualTo( "{\"id\":\"42\",\"a\":1}" );
+        assertReleased();
+    }
+
+    @Test
+    void skipsWhitespaceOnlyBuffers() throws IOException {
+        assertThat( transfer( Map.of( "id", "42" ), " \n", "\t", "\r\n {\"a\":", "1}" ) ).isEqualTo( "{\"id\":\"42\",\"a\":1}" );
+        assertReleased();
+    }
+
+    @Test
+    void addsFieldsToEmptyObject() throws IOException {
+        assertThat( transfer( Map.of( "id", "42" ), "{", " }" ) ).isEqualTo( "{\"id\":\"42\"}" );
+        assertReleased();
+    }
+
+    @Test
+    void addsFieldsInOrderAndEscaped() throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put( "id", "42" );
+        fields.put( "pin", "1\"2" );
+        assertThat( transfer( fields, "{\"a\":1}" ) ).isEqualTo( "{\"id\":\"42\",\"pin\":\"1\\\"2\",\"a\":1}" );
+        assertReleased();
+    }
+
+    @Test
+    void passesThroughWithoutFields() throws IOException {
+        assertThat( transfer( Map.of(), "{\"a\"", ":1}" ) ).isEqualTo( "{\"a\":1}" );
+        assertThat( transfer( Map.of(), "{}" ) ).isEqualTo( "{}" );
+        assertReleased();
+    }
+
+    @Test
+    void rejectsNonObjectAndCancelsUpstream() {
+        JsonObjectSplicer splicer = new JsonObjectSplicer( Map.of( "id", "42" ), 0 );
+        assertThatThrownBy( () -> splicer.transfer( upstream( "[1,", "2]" ), new ByteArrayOutputStream() ) )
+            .isInstanceOf( IOException.class );
+        assertThat( cancelled ).isTrue();
+        assertReleased();
+    }
+
+    @Test
+    void rejectsEmptyBody() {
+        JsonObjectSplicer splicer = new JsonObjectSplicer( Map.of( "id", "42" ), 0 );
+        assertThatThrownBy( () -> splicer.transfer( upstream( "  " ), new ByteArrayOutputStream() ) )
+            .isInstanceOf( IOException.class );
+        assertReleased();
+    }
+
+    @Test
+    void cancelsUpstreamWhenClientIsGone() {
+        JsonObjectSplicer splicer = new JsonObjectSplicer( Map.of( "id", "42" ), 0 );
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write( int b ) throws IOException {
+                throw new IOException( "broken pipe" );
+            }
+            @Override
+            public void write( byte[] b, int off, int len ) throws IOException {
+                throw new IOException( "broken pipe" );
+            }
+        };
+        assertThatThrownBy( () -> splicer.transfer( upstream( "{\"a\":", "1,", "\"b\":2}" ), failing ) )
+            .isInstanceOf( IOException.class ).hasMessage( "broken pipe" );
+        assertThat( cancelled ).isTrue();
+        assertReleased();
+    }
+
+    @Test
+    void capturesUpstreamDocumentUpToLimit() throws IOException {
+        JsonObjectSplicer splicer = new JsonObjectSplicer( Map.of( "id", "42" ), 16 );
+        splicer.transfer( upstream( "{\"url\":", "\"x\"}" ), new ByteArrayOutputStream() );
+        assertThat( new String( splicer.captured(), StandardCharsets.UTF_8 ) ).isEqualTo( "{\"url\":\"x\"}" );
+
+        JsonObjectSplicer tooLarge = new JsonObjectSplicer( Map.of( "id", "42" ), 16 );
+        tooLarge.transfer( upstream( "{\"url\":", "\"0123456789\"}" ), new ByteArrayOutputStream() );
+        assertThat( tooLarge.captured() ).isNull();
+
+        JsonObjectSplicer none = new JsonObjectSplicer( Map.of( "id", "42" ), 0 );
+        none.transfer( upstream( "{}" ), new ByteArrayOutputStream() );
+        assertThat( none.captured() ).isNull();
+        assertReleased();
+    }
+
+    @Test
+    void readsTopLevelStringField() throws IOException {
+        // stops at the field, the (truncated) rest of the document is not read
+        assertThat( JsonObjectSplicer.stringField( bytes( "{\"requestId\":\"r\",\"nested\":{\"url\":\"inner\"},\"url\":\"openid-vc://x\",\"qrCode\":\"dat" ), "url" ) ).isEqualTo( "openid-vc://x" );
+        assertThat( JsonObjectSplicer.stringField( bytes( "{\"requestId\":\"r\",\"list\":[{\"url\":\"inner\"}]}" ), "url" ) ).isNull();
+        assertThat( JsonObjectSplicer.stringField( bytes( "{\"url\":42}" ), "url" ) ).isNull();
+        assertThat( JsonObjectSplicer.stringField( bytes( "[\"url\"]" ), "url" ) ).isNull();
+        assertThatThrownBy( () -> JsonObjectSplicer.stringField( bytes( "{\"requestId\":" ), "url" ) ).isInstanceOf( IOException.class );
+    }
+
+    private static byte[] bytes( String json ) {
+        return json.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    private String transfer( Map<String, String> fields, String... chunks ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonObjectSplicer( fields, 0 ).transfer( upstream( chunks ), out );
+        return out.toString( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * buffers are created on demand, as they arrive from the network
+     */
+    private Flux<DataBuffer> upstream( String... chunks ) {
+        return Flux.fromArray( chunks )
+                   .map( chunk -> {
+                       NettyDataBuffer buffer = bufferFactory.wrap( bufferFactory.getByteBufAllocator().buffer().writeBytes( chunk.getBytes( StandardCharsets.UTF_8 ) ) );
+                       created.add( buffer );
+                       return (DataBuffer) buffer;
+                   } )
+                   .limitRate( 1 )
+                   .doOnCancel( () -> cancelled.set( true ) );
+    }
+
+    private void assertReleased() {
+        assertThat( created ).isNotEmpty();
+        for ( NettyDataBuffer buffer : created ) {
+            assertThat( buffer.getNativeBuffer().refCnt() ).isZero();
+        }
+    }
+
+} // cls
@@ -0,0 +1,87 @@
+package ch.sbb.iam.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.UUID;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * /api/issuer/qrcode and /api/verifier/qrcode render the request URL of a session, unknown ids and formats are
+ * answered with plain text errors.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+    "aadvc_WarmUp=false",
+    "aadvc_TenantId=dummyTenant",
+    "aadvc_ClientId=dummyClient",
+    "aadvc_ClientSecret=dummySecret"
+})
+class QrCodeEndpointTest {
+
+    private static final String URL = "openid-vc://?request_uri=https://verifiedid.did.msidentity.com/v1.0/tenants/00000000-0000-0000-0000-000000000000/verifiableCredentials/presentationRequests/";
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private IssuerController issuerController;
+
+    @Autowired
+    private VerifierController verifierController;
+
+    @ParameterizedTest
+    @ValueSource(strings = { "issuer", "verifier" })
+    void rendersRequestUrlOfSession( String api ) {
+        String id = createSession( api );
+
+        ResponseEntity<byte[]> svg = restTemplate.getForEntity( "/api/" + api + "/qrcode?id=" + id, byte[].class );
+        assertThat( svg.getStatusCode() ).isEqualTo( HttpStatus.OK );
+        assertThat( svg.getHeaders().getContentType() ).isEqualTo( MediaType.valueOf("image/svg+xml") );
+
+        ResponseEntity<byte[]> png = restTemplate.getForEntity( "/api/" + api + "/qrcode?id=" + id + "&format=png", byte[].class );
+        assertThat( png.getStatusCode() ).isEqualTo( HttpStatus.OK );
+        assertThat( png.getHeaders().getContentType() ).isEqualTo( MediaType.IMAGE_PNG );
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "issuer", "verifier" })
+    void unknownIdIsNotFound( String api ) {
+        ResponseEntity<String> response = restTemplate.getForEntity( "/api/" + api + "/qrcode?id=" + UUID.randomUUID(), String.class );
+        assertThat( response.getStatusCode() ).isEqualTo( HttpStatus.NOT_FOUND );
+        assertThat( response.getHeaders().getContentType().isCompatibleWith( MediaType.TEXT_PLAIN ) ).isTrue();
+        assertThat( response.getBody() ).isEqualTo( "Unknown id" );
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "issuer", "verifier" })
+    void unknownFormatIsBadRequest( String api ) {
+        String id = createSession( api );
+        ResponseEntity<String> response = restTemplate.getForEntity( "/api/" + api + "/qrcode?id=" + id + "&format=gif", String.class );
+        assertThat( response.getStatusCode() ).isEqualTo( HttpStatus.BAD_REQUEST );
+        assertThat( response.getHeaders().getContentType().isCompatibleWith( MediaType.TEXT_PLAIN ) ).isTrue();
+        assertThat( response.getBody() ).isEqualTo( "Unknown format" );
+    }
+
+    /**
+     * puts a request URL into the cache of the controller, as the request endpoint would do with the response of
+     * the VC Request API
+     */
+    @SuppressWarnings("unchecked")
+    private String createSession( String api ) {
+        Object controller = api.equals( "issuer" ) ? issuerController : verifierController;
+        Cache<String, String> requestUrls = (Cache<String, String>) ReflectionTestUtils.getField( controller, "requestUrls" );
+        String id = UUID.randomUUID().toString();
+        requestUrls.put( id, URL + id );
+        return id;
+    }
+
+} // cls
@@ -0,0 +1,245 @@
+package ch.sbb.iam.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Hammers the same sessions with duplicate and out-of-order VC Request API callbacks from many threads.
+ * Every callback must be acknowledged and every session must end in its final status, a late request_retrieved
+ * must never overwrite it. The transitions themselves are hammered without HTTP, where races are far more likely:
+ * the final transition (and the publication of the B2C claims) must be applied exactly once per session.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+    "aadvc_WarmUp=false",
+    "aadvc_TenantId=dummyTenant",
+    "aadvc_ClientId=dummyClient",
+    "aadvc_ClientSecret=dummySecret",
+    "aadvc_ApiKey=testApiKey",
+    "aadvc_CallbackQueueSize=10000",
+    "logging.level.ch.sbb.iam=WARN"
+})
+class SessionCallbackConcurrencyTest {
+
+    private static final int SESSIONS = 20;
+    private static final int DUPLICATES = 25;
+    private static final int THREADS = 32;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private IssuerController issuerController;
+
+    @Autowired
+    private VerifierController verifierController;
+
+    @Test
+    void issuanceCallbacksEndInFinalStatus() throws Exception {
+        List<String> ids = createSessions( issuerController );
+        List<Callable<HttpStatusCode>> callbacks = new ArrayList<>();
+        for ( String id : ids ) {
+            for ( int i = 0; i < DUPLICATES; i++ ) {
+                callbacks.add( () -> callback( "/api/issuer/issue-request-callback", issuanceCallback( id, "request_retrieved" ) ) );
+                callbacks.add( () -> callback( "/api/issuer/issue-request-callback", issuanceCallback( id, "issuance_successful" ) ) );
+            }
+        }
+        assertAllAcknowledged( callbacks );
+        for ( String id : ids ) {
+            assertThat( status( "/api/issuer/issuance-response?id=" + id ) ).isEqualTo( "issuance_successful" );
+        }
+    }
+
+    @Test
+    void presentationCallbacksEndInFinalStatus() throws Exception {
+        List<String> ids = createSessions( verifierController );
+        List<Callable<HttpStatusCode>> callbacks = new ArrayList<>();
+        for ( String id : ids ) {
+            for ( int i = 0; i < DUPLICATES; i++ ) {
+                callbacks.add( () -> callback( "/api/verifier/presentation-request-callback", presentationCallback( id, "request_retrieved" ) ) );
+                callbacks.add( () -> callback( "/api/verifier/presentation-request-callback", presentationCallback( id, "presentation_verified" ) ) );
+            }
+        }
+        assertAllAcknowledged( callbacks );
+        for ( String id : ids ) {
+            assertThat( status( "/api/verifier/presentation-response?id=" + id ) ).isEqualTo( "presentation_verified" );
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType( MediaType.APPLICATION_JSON );
+            ResponseEntity<String> b2c = restTemplate.postForEntity( "/api/verifier/presentation-response-b2c"
+                                                                   , new HttpEntity<>( "{\"id\":\"" + id + "\"}", headers ), String.class );
+            assertThat( b2c.getStatusCode() ).isEqualTo( HttpStatus.OK );
+        }
+    }
+
+    @Test
+    void lateCallbacksDontChangeFinalStatus() throws Exception {
+        List<String> ids = createSessions( verifierController );
+        for ( String id : ids ) {
+            assertThat( callback( "/api/verifier/presentation-request-callback", presentationCallback( id, "presentation_verified" ) ) ).isEqualTo( HttpStatus.OK );
+        }
+        List<Callable<HttpStatusCode>> callbacks = new ArrayList<>();
+        for ( String id : ids ) {
+            for ( int i = 0; i < DUPLICATES; i++ ) {
+                callbacks.add( () -> callback( "/api/verifier/presentation-request-callback", presentationCallback( id, "request_retrieved" ) ) );
+            }
+        }
+        assertAllAcknowledged( callbacks );
+        for ( String id : ids ) {
+            assertThat( status( "/api/verifier/presentation-response?id=" + id ) ).isEqualTo( "presentation_verified" );
+        }
+    }
+
+    @Test
+    void transitionsAreAppliedOnce() throws Exception {
+        Cache<String, SessionState> sessions = Caffeine.newBuilder()
+                                                       .expireAfter(new ExpireAfterWrite<>(Duration.ofMinutes(15)))
+                                                       .build();
+        Map<String, AtomicInteger> accepted = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> published = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> processed = new ConcurrentHashMap<>();
+        List<Callable<Void>> transitions = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ ) {
+            String id = "id-" + i;
+            sessions.put( id, new SessionState( SessionStatus.REQUEST_CREATED, "{}" ) );
+            accepted.put( id, new AtomicInteger() );
+            published.put( id, new AtomicInteger() );
+            processed.put( id, new AtomicInteger() );
+            for ( int n = 0; n < DUPLICATES; n++ ) {
+                transitions.add( () -> {
+                    if ( SessionState.claim( sessions, id, SessionStatus.REQUEST_RETRIEVED ) ) {
+                        try {
+                            SessionState.transition( sessions, id, SessionStatus.REQUEST_RETRIEVED, "{}" );
+                        } finally {
+                            SessionState.release( sessions, id, SessionStatus.REQUEST_RETRIEVED );
+                        }
+                    }
+                    return null;
+                } );
+                transitions.add( () -> {
+                    // same protocol as the callback handlers: claim, do the expensive work, then publish
+                    if ( SessionState.claim( sessions, id, SessionStatus.PRESENTATION_VERIFIED ) ) {
+                        try {
+                            processed.get( id ).incrementAndGet();
+                            if ( SessionState.transition( sessions, id, SessionStatus.PRESENTATION_VERIFIED, "{}", () -> published.get( id ).incrementAndGet() ) ) {
+                                accepted.get( id ).incrementAndGet();
+                            }
+                        } finally {
+                            SessionState.release( sessions, id, SessionStatus.PRESENTATION_VERIFIED );
+                        }
+                    }
+                    return null;
+                } );
+            }
+        }
+        Collections.shuffle( transitions );
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        try {
+            for ( Future<Void> result : executor.invokeAll( transitions ) ) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for ( String id : accepted.keySet() ) {
+            assertThat( sessions.getIfPresent( id ).status() ).isEqualTo( SessionStatus.PRESENTATION_VERIFIED );
+            assertThat( accepted.get( id ).get() ).isEqualTo( 1 );
+            assertThat( published.get( id ).get() ).isEqualTo( 1 );
+            assertThat( processed.get( id ).get() ).isEqualTo( 1 );
+            assertThat( sessions.getIfPresent( id ).claimed() ).isNull();
+        }
+    }
+
+    @Test
+    void releasedClaimCanBeRetried() {
+        Cache<String, SessionState> sessions = Caffeine.newBuilder().build();
+        sessions.put( "id", new SessionState( SessionStatus.REQUEST_CREATED, "{}" ) );
+        assertThat( SessionState.claim( sessions, "id", SessionStatus.PRESENTATION_VERIFIED ) ).isTrue();
+        assertThat( SessionState.claim( sessions, "id", SessionStatus.PRESENTATION_VERIFIED ) ).isFalse();
+        assertThat( SessionState.claim( sessions, "id", SessionStatus.REQUEST_RETRIEVED ) ).isFalse();
+        // e.g. the receipt couldn't be verified
+        SessionState.release( sessions, "id", SessionStatus.PRESENTATION_VERIFIED );
+        assertThat( sessions.getIfPresent( "id" ).status() ).isEqualTo( SessionStatus.REQUEST_CREATED );
+        assertThat( SessionState.claim( sessions, "id", SessionStatus.PRESENTATION_VERIFIED ) ).isTrue();
+        assertThat( SessionState.claim( sessions, "unknown", SessionStatus.PRESENTATION_VERIFIED ) ).isFalse();
+    }
+
+    /**
+     * puts new sessions into the session cache, as the request endpoints would do after calling the VC Request API
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> createSessions( Object controller ) {
+        Cache<String, SessionState> sessions = (Cache<String, SessionState>) ReflectionTestUtils.getField( controller, "sessions" );
+        List<String> ids = new ArrayList<>();
+        for ( int i = 0; i < SESSIONS; i++ ) {
+            String id = UUID.randomUUID().toString();
+            sessions.put( id, new SessionState( SessionStatus.REQUEST_CREATED, "{\"status\":\"request_created\",\"message\":\"Waiting for QR code to be scanned\"}" ) );
+            ids.add( id );
+        }
+        return ids;
+    }
+
+    private void assertAllAcknowledged( List<Callable<HttpStatusCode>> callbacks ) throws Exception {
+        Collections.shuffle( callbacks );
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        try {
+            for ( Future<HttpStatusCode> result : executor.invokeAll( callbacks ) ) {
+                assertThat( result.get() ).isEqualTo( HttpStatus.OK );
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private HttpStatusCode callback( String path, String body ) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType( MediaType.APPLICATION_JSON );
+        headers.set( "api-key", "testApiKey" );
+        return restTemplate.postForEntity( path, new HttpEntity<>( body, headers ), String.class ).getStatusCode();
+    }
+
+    private String status( String path ) throws Exception {
+        return objectMapper.readTree( restTemplate.getForObject( path, String.class ) ).path("status").asText();
+    }
+
+    private String issuanceCallback( String id, String requestStatus ) {
+        ObjectNode callback = objectMapper.createObjectNode();
+        callback.put("requestId", UUID.randomUUID().toString() );
+        callback.put("requestStatus", requestStatus );
+        callback.put("state", id );
+        return callback.toString();
+    }
+
+    private String presentationCallback( String id, String requestStatus ) {
+        ObjectNode callback = objectMapper.createObjectNode();
+        callback.put("requestId", UUID.randomUUID().toString() );
+        callback.put("requestStatus", requestStatus );
+        callback.put("state", id );
+        if ( requestStatus.equals( "presentation_verified" ) ) {
+            callback.put("subject", "did:ion:holder" );
+            ObjectNode vcData = callback.putArray("verifiedCredentialsData").addObject();
+            vcData.put("issuer", "did:web:issuer" );
+            vcData.putArray("type").add( "VerifiableCredential" ).add( "SnoopfishCommunityMember" );
+            vcData.putObject("claims").put("firstName", "Test" ).put("lastName", "User" );
+        }
+        return callback.toString();
+    }
+
+} // cls
@@ -0,0 +1,73 @@
+package ch.sbb.iam.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.*;
+import java.util.UUID;
+import java.util.logging.*;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Size of the snapshot and time to write and restore it, for full session caches. Not part of the build, run it with
+ * mvn test -Dtest=SessionSnapshotBenchmark -Dbenchmark=true
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SessionSnapshotBenchmark {
+    private static final Logger lgr = Logger.getLogger(SessionSnapshotBenchmark.class.getName());
+
+    private static final int ROUNDS = 5;
+
+    // status data and request URL of a presentation_verified session, as stored by the callback
+    private static final String DATA = "{\n  \"status\" : \"presentation_verified\",\n  \"message\" : \"Presentation received\",\n"
+                                     + "  \"subject\" : \"did:ion:EiD2aK8Bz5YQ0qAbN3rW1cC7xVtJ4mP9sHnL6uGfT0eR1w\",\n"
+                                     + "  \"firstName\" : \"Maria\",\n  \"lastName\" : \"Muster\",\n  \"employeeId\" : \"U123456\"\n}";
+    private static final String URL = "openid-vc://?request_uri=https://beta.did.msidentity.com/v1.0/tenants/0f9e8d7c-6b5a-4c3d-2e1f-0a9b8c7d6e5f/verifiableCredentials/presentationRequests/";
+
+    @TempDir
+    Path snapshotDirectory;
+
+    @ParameterizedTest
+    @ValueSource(ints = { 10_000, 50_000 })
+    @SuppressWarnings("unchecked")
+    void writeAndRestore( int sessionCount ) throws Exception {
+        for ( int round = 0; round < ROUNDS; round++ ) {
+            VerifierController written = new VerifierController( sessionCount );
+            Cache<String, SessionState> sessions = (Cache<String, SessionState>) ReflectionTestUtils.getField( written, "sessions" );
+            Cache<String, String> requestUrls = (Cache<String, String>) ReflectionTestUtils.getField( written, "requestUrls" );
+            for ( int i = 0; i < sessionCount; i++ ) {
+                String id = UUID.randomUUID().toString();
+                sessions.put( id, new SessionState( SessionStatus.PRESENTATION_VERIFIED, DATA ) );
+                requestUrls.put( id, URL + id );
+            }
+            snapshot( written, "old-instance" ).write();
+            Path file = snapshotDirectory.resolve( "old-instance.snapshot" );
+
+            VerifierController restored = new VerifierController( sessionCount );
+            long start = System.nanoTime();
+            snapshot( restored, "new-instance" ).merge();
+            long restoreTime = System.nanoTime() - start;
+
+            Cache<String, SessionState> restoredSessions = (Cache<String, SessionState>) ReflectionTestUtils.getField( restored, "sessions" );
+            assertThat( restoredSessions.estimatedSize() ).isEqualTo( sessionCount );
+            lgr.info( sessionCount + " sessions: snapshot " + Files.size( file ) / 1024 + " KB, restored in " + restoreTime / 1_000_000 + " ms" );
+            Files.delete( file );
+        }
+    }
+
+    private SessionSnapshot snapshot( VerifierController verifierController, String instanceId ) {
+        SessionSnapshot snapshot = new SessionSnapshot( new IssuerController( 1 ), verifierController );
+        ReflectionTestUtils.setField( snapshot, "snapshotDirectory", snapshotDirectory.toString() );
+        ReflectionTestUtils.setField( snapshot, "instanceId", instanceId );
+        return snapshot;
+    }
+
+} // cls
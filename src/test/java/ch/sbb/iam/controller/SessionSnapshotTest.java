@@ -0,0 +1,120 @@
+package ch.sbb.iam.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Rolling deployment: the old instance writes its snapshot after the new instance has started. The first callback
+ * for one of its sessions must find the session in the snapshot, without taking the file away from other replicas.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+    "aadvc_WarmUp=false",
+    "aadvc_TenantId=dummyTenant",
+    "aadvc_ClientId=dummyClient",
+    "aadvc_ClientSecret=dummySecret",
+    "aadvc_ApiKey=testApiKey",
+    "aadvc_InstanceId=new-instance",
+    "aadvc_SnapshotDirectory=target/session-snapshot-test"
+})
+class SessionSnapshotTest {
+
+    // a fixed directory, the test contexts are also built by AOT processing (-Paot)
+    private static final Path snapshotDirectory = Paths.get( "target/session-snapshot-test" );
+    private static final Path stagingDirectory = Paths.get( "target/session-snapshot-test-staging" );
+
+    @BeforeAll
+    static void createSnapshotDirectory() throws Exception {
+        Files.createDirectories( snapshotDirectory );
+        Files.createDirectories( stagingDirectory );
+        Files.deleteIfExists( snapshotDirectory.resolve( "old-instance.snapshot" ) );
+        // a section name longer than the file, must be skipped without failing the startup
+        try (DataOutputStream out = new DataOutputStream( Files.newOutputStream( snapshotDirectory.resolve( "corrupt.snapshot" ) ) )) {
+            out.writeInt( SessionSnapshot.MAGIC );
+            out.writeInt( SessionSnapshot.VERSION );
+            out.writeLong( System.currentTimeMillis() );
+            out.writeInt( 1 );
+            out.writeInt( Integer.MAX_VALUE );
+        }
+    }
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private SessionSnapshot sessionSnapshot;
+
+    @Autowired
+    private VerifierController verifierController;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void callbackMergesSnapshotOfOtherInstance() throws Exception {
+        Cache<String, SessionState> sessions = (Cache<String, SessionState>) ReflectionTestUtils.getField( verifierController, "sessions" );
+        String id = UUID.randomUUID().toString();
+        sessions.put( id, new SessionState( SessionStatus.REQUEST_CREATED, "{\"status\":\"request_created\"}" ) );
+        // written by the old instance after this one has started (staged, so it isn't merged while the session exists)
+        ReflectionTestUtils.setField( sessionSnapshot, "instanceId", "old-instance" );
+        ReflectionTestUtils.setField( sessionSnapshot, "snapshotDirectory", stagingDirectory.toString() );
+        try {
+            sessionSnapshot.write();
+        } finally {
+            ReflectionTestUtils.setField( sessionSnapshot, "instanceId", "new-instance" );
+            ReflectionTestUtils.setField( sessionSnapshot, "snapshotDirectory", snapshotDirectory.toString() );
+        }
+        sessions.invalidate( id );
+        Files.move( stagingDirectory.resolve( "old-instance.snapshot" ), snapshotDirectory.resolve( "old-instance.snapshot" ), StandardCopyOption.ATOMIC_MOVE );
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType( MediaType.APPLICATION_JSON );
+        headers.set( "api-key", "testApiKey" );
+        String callback = "{\"requestId\":\"r\",\"requestStatus\":\"request_retrieved\",\"state\":\"" + id + "\"}";
+        ResponseEntity<String> response = restTemplate.postForEntity( "/api/verifier/presentation-request-callback", new HttpEntity<>( callback, headers ), String.class );
+
+        assertThat( response.getStatusCode() ).isEqualTo( HttpStatus.OK );
+        assertThat( sessions.getIfPresent( id ).status() ).isEqualTo( SessionStatus.REQUEST_RETRIEVED );
+        // the other replicas can still merge it
+        assertThat( snapshotDirectory.resolve( "old-instance.snapshot" ) ).exists();
+    }
+
+    @Test
+    void corruptSnapshotIsSkipped() throws Exception {
+        // touched, so it is read again
+        Files.setLastModifiedTime( snapshotDirectory.resolve( "corrupt.snapshot" ), FileTime.fromMillis( System.currentTimeMillis() ) );
+        assertThat( sessionSnapshot.merge() ).isFalse();
+    }
+
+    @Test
+    void unchangedDirectoryIsNotMergedAgain() {
+        sessionSnapshot.merge();
+        assertThat( sessionSnapshot.mergeIfChanged() ).isFalse();
+    }
+
+    @Test
+    void sessionStatusIsWrittenByValue() {
+        SessionState session = new SessionState( SessionStatus.PRESENTATION_VERIFIED, "{\"status\":\"presentation_verified\"}" );
+        assertThat( SessionSnapshot.decodeSession( SessionSnapshot.encodeSession( session ) ) ).isEqualTo( session );
+        // e.g. written by a newer version, the entry is dropped
+        byte[] status = "presentation_revoked".getBytes( StandardCharsets.UTF_8 );
+        byte[] unknown = new byte[1 + status.length];
+        unknown[0] = (byte)status.length;
+        System.arraycopy( status, 0, unknown, 1, status.length );
+        assertThat( SessionSnapshot.decodeSession( unknown ) ).isNull();
+    }
+
+} // cls
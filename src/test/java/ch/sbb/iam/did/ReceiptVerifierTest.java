@@ -0,0 +1,133 @@
+package ch.sbb.iam.did;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.security.*;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.nimbusds.jose.*;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jwt.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * A valid signature is not enough: the credential must be issued by an accepted issuer to the holder presenting it,
+ * and the presentation must be made for the verifier. Failed DID resolutions are cached.
+ */
+class ReceiptVerifierTest {
+
+    private static final String VERIFIER = "did:web:verifier.example";
+    private static final String ISSUER = "did:web:issuer.example";
+    private static final String HOLDER = "did:ion:holder";
+    private static final String OTHER = "did:web:other.example";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, KeyPair> keys = new HashMap<>();
+    private final Map<String, JsonNode> didDocuments = new HashMap<>();
+    private final ReceiptVerifier receiptVerifier = new ReceiptVerifier( new DidKeyStore( didDocuments::get, 60, 60 ), VERIFIER );
+
+    ReceiptVerifierTest() throws Exception {
+        for ( String did : List.of( ISSUER, HOLDER, OTHER ) ) {
+            addDid( did );
+        }
+    }
+
+    @Test
+    void acceptsCredentialOfAcceptedIssuerPresentedByItsSubject() throws Exception {
+        String vc = sign( ISSUER, claims( ISSUER ).subject( HOLDER ).jwtID( "urn:pic:1" ) );
+        JWTClaimsSet vcClaims = receiptVerifier.verify( presentation( HOLDER, VERIFIER, vc ), Set.of( ISSUER ) );
+        assertThat( vcClaims.getJWTID() ).isEqualTo( "urn:pic:1" );
+    }
+
+    @Test
+    void rejectsCredentialOfOtherIssuer() throws Exception {
+        String vc = sign( OTHER, claims( OTHER ).subject( HOLDER ) );
+        assertThatThrownBy( () -> receiptVerifier.verify( presentation( HOLDER, VERIFIER, vc ), Set.of( ISSUER ) ) )
+            .isInstanceOf( GeneralSecurityException.class ).hasMessageContaining( "not accepted" );
+    }
+
+    @Test
+    void rejectsCredentialPresentedByOtherHolder() throws Exception {
+        String vc = sign( ISSUER, claims( ISSUER ).subject( HOLDER ) );
+        assertThatThrownBy( () -> receiptVerifier.verify( presentation( OTHER, VERIFIER, vc ), Set.of( ISSUER ) ) )
+            .isInstanceOf( GeneralSecurityException.class ).hasMessageContaining( "presented by" );
+    }
+
+    @Test
+    void rejectsPresentationForOtherVerifier() throws Exception {
+        String vc = sign( ISSUER, claims( ISSUER ).subject( HOLDER ) );
+        assertThatThrownBy( () -> receiptVerifier.verify( presentation( HOLDER, OTHER, vc ), Set.of( ISSUER ) ) )
+            .isInstanceOf( GeneralSecurityException.class ).hasMessageContaining( "not made for" );
+    }
+
+    @Test
+    void rejectsCredentialNotValidYet() throws Exception {
+        String vc = sign( ISSUER, claims( ISSUER ).subject( HOLDER ).notBeforeTime( new Date( System.currentTimeMillis() + 3_600_000 ) ) );
+        assertThatThrownBy( () -> receiptVerifier.verify( presentation( HOLDER, VERIFIER, vc ), Set.of( ISSUER ) ) )
+            .isInstanceOf( GeneralSecurityException.class ).hasMessageContaining( "not valid yet" );
+    }
+
+    @Test
+    void resolvesUnknownDidOnce() throws Exception {
+        AtomicInteger resolutions = new AtomicInteger();
+        DidKeyStore keyStore = new DidKeyStore( did -> {
+            resolutions.incrementAndGet();
+            LockSupport.parkNanos( 100_000_000 );
+            return null;
+        }, 60, 60 );
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for ( int i = 0; i < 32; i++ ) {
+                results.add( executor.submit( () -> keyStore.verifier( "did:web:unknown.example#key-1" ) ) );
+            }
+            for ( Future<?> result : results ) {
+                assertThatThrownBy( result::get ).hasCauseInstanceOf( GeneralSecurityException.class );
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat( resolutions.get() ).isEqualTo( 1 );
+    }
+
+    private void addDid( String did ) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance( "EC", DidKeyStore.bouncyCastle );
+        generator.initialize( new ECGenParameterSpec( "secp256k1" ) );
+        KeyPair keyPair = generator.generateKeyPair();
+        keys.put( did, keyPair );
+        ObjectNode didDocument = objectMapper.createObjectNode();
+        didDocument.put("id", did );
+        ObjectNode method = didDocument.putArray("verificationMethod").addObject();
+        method.put("id", "#key-1" );
+        method.set("publicKeyJwk", objectMapper.readTree( new ECKey.Builder( Curve.SECP256K1, (ECPublicKey) keyPair.getPublic() ).build().toJSONString() ) );
+        didDocuments.put( did, didDocument );
+    }
+
+    private static JWTClaimsSet.Builder claims( String issuer ) {
+        return new JWTClaimsSet.Builder().issuer( issuer ).expirationTime( new Date( System.currentTimeMillis() + 60_000 ) );
+    }
+
+    private String presentation( String holder, String audience, String vc ) throws Exception {
+        return sign( holder, claims( holder ).audience( audience ).claim( "vp", Map.of( "verifiableCredential", List.of( vc ) ) ) );
+    }
+
+    private String sign( String did, JWTClaimsSet.Builder claims ) throws Exception {
+        ECDSASigner signer = new ECDSASigner( keys.get( did ).getPrivate(), Curve.SECP256K1 );
+        signer.getJCAContext().setProvider( DidKeyStore.bouncyCastle );
+        SignedJWT jwt = new SignedJWT( new JWSHeader.Builder( JWSAlgorithm.ES256K ).keyID( did + "#key-1" ).build(), claims.build() );
+        jwt.sign( signer );
+        return jwt.serialize();
+    }
+
+} // cls
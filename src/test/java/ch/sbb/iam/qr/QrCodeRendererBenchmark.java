@@ -0,0 +1,57 @@
+package ch.sbb.iam.qr;
+
+import java.util.Arrays;
+import java.util.logging.*;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Render latency of the QR codes: every session has its own request URL, so the codes are rendered once per URL and
+ * served from the cache afterwards. Not part of the build, run it with
+ * mvn test -Dtest=QrCodeRendererBenchmark -Dbenchmark=true
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class QrCodeRendererBenchmark {
+    private static final Logger lgr = Logger.getLogger(QrCodeRendererBenchmark.class.getName());
+
+    private static final int WARM_UP = 2_000;
+    private static final int RENDERS = 10_000;
+
+    private static final String URL = "openid-vc://?request_uri=https://verifiedid.did.msidentity.com/v1.0/tenants/00000000-0000-0000-0000-000000000000/verifiableCredentials/presentationRequests/";
+
+    @ParameterizedTest
+    @EnumSource(QrCodeRenderer.Format.class)
+    void renderLatency( QrCodeRenderer.Format format ) throws Exception {
+        QrCodeRenderer renderer = new QrCodeRenderer( 1_048_576, 4 );
+        for ( int i = 0; i < WARM_UP; i++ ) {
+            renderer.render( url( -i ), format );
+        }
+        long[] rendered = new long[RENDERS];
+        long[] cached = new long[RENDERS];
+        int size = 0;
+        for ( int i = 0; i < RENDERS; i++ ) {
+            long start = System.nanoTime();
+            size = renderer.render( url( i ), format ).length;
+            rendered[i] = System.nanoTime() - start;
+            start = System.nanoTime();
+            renderer.render( url( i ), format );
+            cached[i] = System.nanoTime() - start;
+        }
+        lgr.info( format + " (" + size + " bytes): rendered " + percentiles( rendered ) + ", cached " + percentiles( cached ) );
+    }
+
+    private static String url( int i ) {
+        return URL + String.format( "%08d-1111-1111-1111-111111111111", i );
+    }
+
+    private static String percentiles( long[] nanos ) {
+        long[] sorted = nanos.clone();
+        Arrays.sort( sorted );
+        return String.format( "p50 %.3f ms, p99 %.3f ms, max %.3f ms", sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 99 / 100] / 1e6, sorted[sorted.length - 1] / 1e6 );
+    }
+
+} // cls
@@ -0,0 +1,51 @@
+package ch.sbb.iam.qr;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+
+import javax.imageio.ImageIO;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The PNG is written without ImageIO, checks it with ImageIO against the encoded QR code.
+ */
+class QrCodeRendererTest {
+
+    private static final String URL = "openid-vc://?request_uri=https://verifiedid.did.msidentity.com/v1.0/tenants/00000000-0000-0000-0000-000000000000/verifiableCredentials/presentationRequests/11111111-1111-1111-1111-111111111111";
+
+    @Test
+    void pngMatchesEncodedCode() throws Exception {
+        int moduleSize = 3;
+        QrCodeRenderer renderer = new QrCodeRenderer( 1_000_000, moduleSize );
+        ByteMatrix matrix = Encoder.encode( URL, ErrorCorrectionLevel.M ).getMatrix();
+
+        BufferedImage image = ImageIO.read( new ByteArrayInputStream( renderer.render( URL, QrCodeRenderer.Format.PNG ) ) );
+
+        int quietZone = 4;
+        int size = (matrix.getWidth() + 2 * quietZone) * moduleSize;
+        assertThat( image.getWidth() ).isEqualTo( size );
+        assertThat( image.getHeight() ).isEqualTo( size );
+        for ( int y = 0; y < size; y++ ) {
+            for ( int x = 0; x < size; x++ ) {
+                int mx = x / moduleSize - quietZone;
+                int my = y / moduleSize - quietZone;
+                boolean dark = mx >= 0 && my >= 0 && mx < matrix.getWidth() && my < matrix.getHeight() && matrix.get( mx, my ) == 1;
+                assertThat( image.getRGB( x, y ) & 0xffffff ).as( "pixel %d,%d", x, y ).isEqualTo( dark ? 0x000000 : 0xffffff );
+            }
+        }
+    }
+
+    @Test
+    void cachesRenderedCode() throws Exception {
+        QrCodeRenderer renderer = new QrCodeRenderer( 1_000_000, 4 );
+        assertThat( renderer.render( URL, QrCodeRenderer.Format.SVG ) ).isSameAs( renderer.render( URL, QrCodeRenderer.Format.SVG ) );
+    }
+
+} // cls
@@ -0,0 +1,69 @@
+package ch.sbb.iam.template;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Hot reload: a template file which is invalid while it is written must not make its credential type disappear.
+ */
+class RequestTemplateRegistryTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RequestTemplateRegistry registry = new RequestTemplateRegistry();
+
+    @TempDir
+    Path templateDirectory;
+
+    @AfterEach
+    void close() throws Exception {
+        registry.close();
+    }
+
+    @Test
+    void keepsLastValidTemplateOfFile() throws Exception {
+        Files.write( templateDirectory.resolve( "contractor.json" ), presentationTemplate( "Contractor" ) );
+        ReflectionTestUtils.setField( registry, "issuanceFile", "" );
+        ReflectionTestUtils.setField( registry, "presentationFile", templateDirectory.toString() );
+        ReflectionTestUtils.setField( registry, "defaultCredentialType", "SnoopfishCommunityMember" );
+        registry.init();
+        assertThat( registry.presentationTypes() ).contains( "Contractor" );
+
+        // partly written file, together with a new file to know when the reload is done
+        byte[] contractor = presentationTemplate( "Contractor" );
+        Files.write( templateDirectory.resolve( "contractor.json" ), java.util.Arrays.copyOf( contractor, contractor.length / 2 ) );
+        Files.write( templateDirectory.resolve( "visitor.json" ), presentationTemplate( "Visitor" ) );
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ( !registry.presentationTypes().contains( "Visitor" ) && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 50 );
+        }
+
+        assertThat( registry.presentationTypes() ).contains( "Visitor", "Contractor", "SnoopfishCommunityMember" );
+    }
+
+    @Test
+    void doesNotWatchUnsetLocations() throws Exception {
+        ReflectionTestUtils.setField( registry, "issuanceFile", "" );
+        ReflectionTestUtils.setField( registry, "presentationFile", "" );
+        ReflectionTestUtils.setField( registry, "defaultCredentialType", "SnoopfishCommunityMember" );
+        registry.init();
+        assertThat( registry.presentationTypes() ).containsExactly( "SnoopfishCommunityMember" );
+        assertThat( ReflectionTestUtils.getField( registry, "watchThread" ) ).isNull();
+    }
+
+    private byte[] presentationTemplate( String credentialType ) throws Exception {
+        ObjectNode template = (ObjectNode) objectMapper.readTree( new ClassPathResource( "requests/presentation-request.json" ).getInputStream() );
+        ((ObjectNode) template.path("requestedCredentials").get(0)).put( "type", credentialType );
+        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes( template );
+    }
+
+} // cls